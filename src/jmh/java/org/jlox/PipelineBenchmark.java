@@ -0,0 +1,163 @@
+package org.jlox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each stage of the pipeline separately over the sample programs in
+ * {@code src/jmh/resources/programs}, and running them with the tree-walker, with its switch
+ * dispatching variant and with the closure compiler. Run with {@code gradle jmh}, which adds {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"fib", "loops", "strings", "binary_trees", "closures", "counters"})
+    private String program;
+
+    // The optimizer level the running benchmarks see, as with -O on the command line.
+    @Param({"1"})
+    private int level;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        source = read(program);
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+        // Programs print their results; keep that out of the JMH log.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public Globals resolve() {
+        Globals globals = new Globals();
+        new Resolver(globals).resolve(statements);
+        return globals;
+    }
+
+    @Benchmark
+    public Interpreter interpret(Program prepared) {
+        prepared.interpreter.interpret(prepared.statements);
+        return prepared.interpreter;
+    }
+
+    @Benchmark
+    public Interpreter interpretSwitch(SwitchProgram prepared) {
+        prepared.interpreter.interpret(prepared.statements);
+        return prepared.interpreter;
+    }
+
+    @Benchmark
+    public Globals compiled(CompiledProgram prepared) {
+        prepared.compiler.run(prepared.program);
+        return prepared.globals;
+    }
+
+    /**
+     * A freshly parsed and resolved program for every run, so the inline caches and
+     * other state left on the AST by one run never leak into the next.
+     */
+    @State(Scope.Thread)
+    public static class Program {
+        private Interpreter interpreter;
+        private List<Stmt> statements;
+
+        @Setup(Level.Invocation)
+        public void prepare(PipelineBenchmark benchmark) {
+            interpreter = new Interpreter();
+            statements = benchmark.resolved(interpreter);
+        }
+    }
+
+    /**
+     * The same as {@link Program}, run by the tree-walker that dispatches with a switch over
+     * node kinds instead of the visitor.
+     */
+    @State(Scope.Thread)
+    public static class SwitchProgram {
+        private Interpreter interpreter;
+        private List<Stmt> statements;
+
+        @Setup(Level.Invocation)
+        public void prepare(PipelineBenchmark benchmark) {
+            interpreter = new SwitchInterpreter();
+            statements = benchmark.resolved(interpreter);
+        }
+    }
+
+    /**
+     * A program already compiled to closures, so only running the closures is measured.
+     */
+    @State(Scope.Thread)
+    public static class CompiledProgram {
+        private Globals globals;
+        private ClosureCompiler compiler;
+        private ClosureCompiler.StmtNode[] program;
+
+        @Setup(Level.Invocation)
+        public void prepare(PipelineBenchmark benchmark) {
+            Interpreter interpreter = new Interpreter();
+            globals = interpreter.getGlobals();
+            compiler = new ClosureCompiler(globals);
+            program = compiler.compile(benchmark.resolved(interpreter));
+        }
+    }
+
+    private List<Stmt> resolved(Interpreter interpreter) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter.getGlobals()).resolve(statements);
+        return new Optimizer(level).optimize(statements);
+    }
+
+    private static String read(String program) throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/programs/" + program + ".lox")) {
+            if (in == null) {
+                throw new IOException("Missing benchmark program '" + program + "'.");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
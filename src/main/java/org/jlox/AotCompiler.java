@@ -0,0 +1,226 @@
+package org.jlox;
+
+import org.jlox.jit.ClassFileWriter;
+import org.jlox.jit.Code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Compiles a resolved script ahead of time into an executable jar. The script and every function
+ * in it become classes generated by {@link JitCompiler}; a generated main rebuilds the constants
+ * they refer to and runs the script. The jar carries only the runtime the generated code calls
+ * into: no scanner, parser, resolver, optimizer passes or other engines, so nothing is parsed or
+ * rewritten when it starts.
+ */
+class AotCompiler {
+    private static final String RUNTIME = "org/jlox/JitRuntime";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String CONSTANTS_TYPE = "[Ljava/lang/Object;";
+    private static final String PACKAGE = "org/jlox/aot/";
+    private static final String MAIN = PACKAGE + "Main";
+    private static final String SCRIPT = PACKAGE + "Script";
+    // The classes under org/jlox that compiled programs and the runtime they call into can
+    // reach; their nested classes go with them.
+    private static final Set<String> RUNTIME_CLASSES = Set.of(
+            "Interpreter", "JitRuntime", "JitCode", "JitProfile", "Globals", "Environment", "Upvalue",
+            "Capture", "Storage", "Completion", "FunctionType", "BinarySpecialization", "TailCall",
+            "LoxCallable", "LoxClass", "LoxInstance", "LoxFunction", "Shape", "PropertyCache",
+            "UniqueMethod", "Expr", "Stmt", "Token", "TokenType", "exception/RuntimeError",
+            "primitives/Clock"
+    );
+
+    // JVM locals of the generated main.
+    private static final int INTERPRETER = 1;
+    private static final int GLOBALS = 2;
+    private static final int CONSTANTS = 3;
+
+    private final Interpreter interpreter;
+    private final Globals globals;
+    private final JitCompiler compiler;
+
+    AotCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.getGlobals();
+        this.compiler = new JitCompiler(interpreter, globals, 0);
+    }
+
+    void compile(List<Stmt> statements, Path output) throws IOException {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put(SCRIPT, compiler.generateScript(SCRIPT, statements));
+
+        // Compiling a function can add further nested declarations to the constants.
+        List<Object> constants = compiler.getConstants();
+        Map<Stmt.Function, String> functionClasses = new IdentityHashMap<>();
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i) instanceof Stmt.Function) {
+                Stmt.Function declaration = (Stmt.Function) constants.get(i);
+                String name = declaration.getName().getLexeme().replaceAll("[^A-Za-z0-9_]", "_");
+                String className = PACKAGE + "Lox$" + name + "$" + (functionClasses.size() + 1);
+                functionClasses.put(declaration, className);
+                classes.put(className, compiler.generate(
+                        className,
+                        declaration,
+                        compiler.getFunctionType(declaration)
+                ));
+            }
+        }
+        classes.put(MAIN, main(constants, functionClasses));
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MAIN.replace('/', '.'));
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(output), manifest)) {
+            copyRuntime(jar);
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private byte[] main(List<Object> constants, Map<Stmt.Function, String> functionClasses) {
+        ClassFileWriter writer = new ClassFileWriter(MAIN, OBJECT);
+        Code code = writer.addMethod(
+                ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+                "main",
+                "([Ljava/lang/String;)V"
+        );
+
+        code.invokestatic(RUNTIME, "newInterpreter", "()Lorg/jlox/Interpreter;");
+        code.astore(INTERPRETER);
+        code.aload(INTERPRETER);
+        code.invokevirtual("org/jlox/Interpreter", "getGlobals", "()Lorg/jlox/Globals;");
+        code.astore(GLOBALS);
+
+        // The code refers to globals by slot, so they have to be allocated in the same order.
+        for (int slot = 0; slot < globals.size(); slot++) {
+            code.aload(GLOBALS);
+            code.ldc(globals.getName(slot));
+            code.invokevirtual("org/jlox/Globals", "slotFor", "(Ljava/lang/String;)I");
+            code.pop();
+        }
+
+        code.iconst(constants.size());
+        code.anewarray(OBJECT);
+        code.astore(CONSTANTS);
+        for (int i = 0; i < constants.size(); i++) {
+            code.aload(CONSTANTS);
+            code.iconst(i);
+            constant(code, constants.get(i), functionClasses);
+            code.aastore();
+        }
+
+        newCode(code, SCRIPT);
+        code.invokestatic(RUNTIME, "runScript", "(Lorg/jlox/JitCode;)V");
+        code.returnVoid();
+        return writer.toByteArray();
+    }
+
+    // Emits code that recreates a value the compiled code loads from its constants.
+    private void constant(Code code, Object value, Map<Stmt.Function, String> functionClasses) {
+        if (value == interpreter) {
+            code.aload(INTERPRETER);
+        } else if (value == globals) {
+            code.aload(GLOBALS);
+        } else if (value instanceof Token) {
+            Token token = (Token) value;
+            code.ldc(token.getType().name());
+            code.ldc(token.getLexeme());
+            code.iconst(token.getLine());
+            code.invokestatic(RUNTIME, "token", "(Ljava/lang/String;Ljava/lang/String;I)Lorg/jlox/Token;");
+        } else if (value instanceof PropertyCache) {
+            code.anew("org/jlox/PropertyCache");
+            code.dup();
+            code.invokespecial("org/jlox/PropertyCache", "<init>", "()V");
+        } else if (value instanceof UniqueMethod) {
+            code.anew("org/jlox/UniqueMethod");
+            code.dup();
+            code.ldc(((UniqueMethod) value).getName());
+            code.invokespecial("org/jlox/UniqueMethod", "<init>", "(Ljava/lang/String;)V");
+        } else if (value instanceof Double) {
+            code.ldc(value.toString());
+            code.invokestatic("java/lang/Double", "valueOf", "(Ljava/lang/String;)Ljava/lang/Double;");
+        } else if (value instanceof String) {
+            code.ldc((String) value);
+        } else if (value instanceof Stmt.Function) {
+            Stmt.Function declaration = (Stmt.Function) value;
+            constant(code, declaration.getName(), functionClasses);
+            code.iconst(declaration.getParams().size());
+            newCode(code, functionClasses.get(declaration));
+            code.invokestatic(RUNTIME, "declaration", "(Lorg/jlox/Token;ILorg/jlox/JitCode;)Ljava/lang/Object;");
+        } else {
+            throw new IllegalStateException("Can't compile a constant of type " + value.getClass().getName() + ".");
+        }
+    }
+
+    private static void newCode(Code code, String className) {
+        code.anew(className);
+        code.dup();
+        code.aload(CONSTANTS);
+        code.invokespecial(className, "<init>", "(" + CONSTANTS_TYPE + ")V");
+    }
+
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path location;
+        try {
+            location = Paths.get(AotCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        if (Files.isDirectory(location)) {
+            try (Stream<Path> files = Files.walk(location)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = location.relativize(file).toString().replace('\\', '/');
+                    if (isRuntimeClass(name)) {
+                        jar.putNextEntry(new JarEntry(name));
+                        Files.copy(file, jar);
+                        jar.closeEntry();
+                    }
+                }
+            }
+        } else {
+            try (JarFile source = new JarFile(location.toFile())) {
+                Enumeration<JarEntry> entries = source.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (isRuntimeClass(entry.getName())) {
+                        jar.putNextEntry(new JarEntry(entry.getName()));
+                        try (InputStream in = source.getInputStream(entry)) {
+                            in.transferTo(jar);
+                        }
+                        jar.closeEntry();
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRuntimeClass(String name) {
+        if (!name.startsWith("org/jlox/") || !name.endsWith(".class")) {
+            return false;
+        }
+        String path = name.substring("org/jlox/".length(), name.length() - ".class".length());
+        int nested = path.indexOf('$');
+        String className = nested < 0 ? path : path.substring(0, nested);
+        return RUNTIME_CLASSES.contains(className);
+    }
+}
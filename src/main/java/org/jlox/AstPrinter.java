@@ -102,6 +102,11 @@ public class AstPrinter implements Expr.Visitor<String> {
         return "";
     }
 
+    @Override
+    public String visitInlinedExpr(Expr.Inlined expr) {
+        return print(expr.getCall());
+    }
+
     private String parenthesize(String name, Expr... exprs) {
         StringBuilder stringBuilder = new StringBuilder();
 
@@ -0,0 +1,354 @@
+package org.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base for optimization passes over a resolved program. Each visit rewrites the node's children
+ * and returns the node itself when none of them changed, or a copy when one did; copies keep the
+ * storage and slots the Resolver assigned. Passes override the nodes they simplify and call
+ * {@link #rewrote} for every simplification. A statement visit returns null to remove the
+ * statement.
+ */
+abstract class AstRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private int rewrites = 0;
+
+    abstract String getName();
+
+    /**
+     * Returns the number of rewrites made since the last call.
+     */
+    int takeRewrites() {
+        int count = rewrites;
+        rewrites = 0;
+        return count;
+    }
+
+    <T> T rewrote(T replacement) {
+        rewrites++;
+        return replacement;
+    }
+
+    void addRewrites(int count) {
+        rewrites += count;
+    }
+
+    /**
+     * Rewrites a whole program. Passes that need to look at the program first override this.
+     */
+    List<Stmt> run(List<Stmt> program) {
+        return rewrite(program);
+    }
+
+    Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    Stmt rewrite(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    // Rewrites a statement that can't be left out, such as a loop body.
+    private Stmt required(Stmt stmt) {
+        Stmt result = rewrite(stmt);
+        return result == null ? new Stmt.Block(List.of()) : result;
+    }
+
+    List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt rewritten = rewrite(statement);
+            changed |= rewritten != statement;
+            if (rewritten != null) {
+                result.add(rewritten);
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    private List<Expr> rewriteAll(List<Expr> expressions) {
+        List<Expr> result = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expression : expressions) {
+            Expr rewritten = rewrite(expression);
+            changed |= rewritten != expression;
+            result.add(rewritten);
+        }
+        return changed ? result : expressions;
+    }
+
+    private List<Stmt.Function> rewriteFunctions(List<Stmt.Function> functions) {
+        List<Stmt.Function> result = new ArrayList<>(functions.size());
+        boolean changed = false;
+        for (Stmt.Function function : functions) {
+            Stmt.Function rewritten = (Stmt.Function) rewrite(function);
+            changed |= rewritten != function;
+            result.add(rewritten);
+        }
+        return changed ? result : functions;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.getValue());
+        if (value == expr.getValue()) {
+            return expr;
+        }
+        Expr.Assign copy = new Expr.Assign(expr.getName(), value);
+        copy.setStorage(expr.getStorage());
+        copy.setSlot(expr.getSlot());
+        return copy;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.getLeft());
+        Expr right = rewrite(expr.getRight());
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Binary(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return rewriteCall(expr);
+    }
+
+    // Rewrites the call's operands, keeping it a call.
+    Expr.Call rewriteCall(Expr.Call expr) {
+        Expr callee = rewrite(expr.getCallee());
+        List<Expr> arguments = rewriteAll(expr.getArguments());
+        if (callee == expr.getCallee() && arguments == expr.getArguments()) {
+            return expr;
+        }
+        return new Expr.Call(callee, expr.getParen(), arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = rewrite(expr.getObject());
+        if (object == expr.getObject()) {
+            return expr;
+        }
+        return new Expr.Get(object, expr.getName());
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = rewrite(expr.getExpression());
+        if (expression == expr.getExpression()) {
+            return expr;
+        }
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.getLeft());
+        Expr right = rewrite(expr.getRight());
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.getObject());
+        Expr value = rewrite(expr.getValue());
+        if (object == expr.getObject() && value == expr.getValue()) {
+            return expr;
+        }
+        return new Expr.Set(object, expr.getName(), value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.getRight());
+        if (right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Unary(expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        Expr condition = rewrite(expr.getCondition());
+        Expr thenBranch = rewrite(expr.getThenbranch());
+        Expr elseBranch = rewrite(expr.getElsebranch());
+        if (condition == expr.getCondition()
+                && thenBranch == expr.getThenbranch()
+                && elseBranch == expr.getElsebranch()) {
+            return expr;
+        }
+        return new Expr.Conditional(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitAnonFunctionExpr(Expr.AnonFunction expr) {
+        Stmt declaration = rewrite(expr.getDeclaration());
+        if (declaration == expr.getDeclaration()) {
+            return expr;
+        }
+        return new Expr.AnonFunction((Stmt.Function) declaration);
+    }
+
+    @Override
+    public Expr visitInlinedExpr(Expr.Inlined expr) {
+        Expr.Call call = rewriteCall(expr.getCall());
+        Expr body = rewrite(expr.getBody());
+        if (call == expr.getCall() && body == expr.getBody()) {
+            return expr;
+        }
+        return new Expr.Inlined(call, expr.getFunction(), body);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = rewrite(stmt.getStatements());
+        if (statements == stmt.getStatements()) {
+            return stmt;
+        }
+        Stmt.Block copy = new Stmt.Block(statements);
+        copy.setSlots(stmt.getSlots());
+        return copy;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = rewriteFunctions(stmt.getMethods());
+        List<Stmt.Function> staticMethods = rewriteFunctions(stmt.getStaticmethods());
+        if (methods == stmt.getMethods() && staticMethods == stmt.getStaticmethods()) {
+            return stmt;
+        }
+        Stmt.Class copy = new Stmt.Class(stmt.getName(), stmt.getSuperclass(), methods, staticMethods);
+        copy.setStorage(stmt.getStorage());
+        copy.setSlot(stmt.getSlot());
+        copy.setSuperslot(stmt.getSuperslot());
+        copy.setSlots(stmt.getSlots());
+        return copy;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = rewrite(stmt.getExpression());
+        if (expression == stmt.getExpression()) {
+            return stmt;
+        }
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = rewrite(stmt.getBody());
+        if (body == stmt.getBody()) {
+            return stmt;
+        }
+        Stmt.Function copy = new Stmt.Function(stmt.getName(), stmt.getParams(), body);
+        copy.setStorage(stmt.getStorage());
+        copy.setSlot(stmt.getSlot());
+        copy.setSlots(stmt.getSlots());
+        copy.setCaptures(stmt.getCaptures());
+        copy.setBoxedparams(stmt.getBoxedparams());
+        return copy;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.getCondition());
+        Stmt thenBranch = required(stmt.getThenbranch());
+        Stmt elseBranch = rewrite(stmt.getElsebranch());
+        if (condition == stmt.getCondition()
+                && thenBranch == stmt.getThenbranch()
+                && elseBranch == stmt.getElsebranch()) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = rewrite(stmt.getExpression());
+        if (expression == stmt.getExpression()) {
+            return stmt;
+        }
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = rewrite(stmt.getValue());
+        if (value == stmt.getValue()) {
+            return stmt;
+        }
+        Stmt.Return copy = new Stmt.Return(stmt.getKeyword(), value);
+        copy.setTailcall(stmt.getTailcall() && Interpreter.returnedCall(value) != null);
+        return copy;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = rewrite(stmt.getInitializer());
+        if (initializer == stmt.getInitializer()) {
+            return stmt;
+        }
+        Stmt.Var copy = new Stmt.Var(stmt.getName(), initializer);
+        copy.setStorage(stmt.getStorage());
+        copy.setSlot(stmt.getSlot());
+        return copy;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.getCondition());
+        Stmt body = required(stmt.getBody());
+        if (condition == stmt.getCondition() && body == stmt.getBody()) {
+            return stmt;
+        }
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt initializer = rewrite(stmt.getInitializer());
+        Expr condition = rewrite(stmt.getCondition());
+        Expr increment = rewrite(stmt.getIncrement());
+        Stmt body = required(stmt.getBody());
+        if (initializer == stmt.getInitializer()
+                && condition == stmt.getCondition()
+                && increment == stmt.getIncrement()
+                && body == stmt.getBody()) {
+            return stmt;
+        }
+        Stmt.For copy = new Stmt.For(initializer, condition, increment, body);
+        copy.setSlots(stmt.getSlots());
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+}
@@ -0,0 +1,330 @@
+package org.jlox;
+
+import org.jlox.exception.RuntimeError;
+
+/**
+ * Type feedback for a binary operator node. Every node starts {@link #UNINITIALIZED}. On its
+ * first evaluation it rewrites itself to a variant specialized for the operator and the operand
+ * types it saw. A specialized variant only checks that its operands still have those types; once
+ * they don't, the node deoptimizes to {@link #GENERIC} and stays there.
+ *
+ * <p>Number variants evaluate their operands with {@link #executeDouble}, so arithmetic nested
+ * inside them, as in {@code a * b + c}, passes its result on unboxed. Only the value of the
+ * outermost operator is boxed.
+ */
+abstract class BinarySpecialization {
+    static final BinarySpecialization UNINITIALIZED = new Uninitialized();
+    static final BinarySpecialization GENERIC = new Generic();
+
+    /**
+     * Applies the operator to operands that have already been evaluated.
+     */
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    Object execute(Interpreter interpreter, Expr.Binary expr) {
+        Object left = interpreter.evaluate(expr.getLeft());
+        Object right = interpreter.evaluate(expr.getRight());
+        return execute(expr, left, right);
+    }
+
+    /**
+     * Evaluates the node for an operator that expects a number. A value that isn't one is
+     * handed back in an {@link UnexpectedValue} so the caller can deoptimize.
+     */
+    double executeDouble(Interpreter interpreter, Expr.Binary expr) throws UnexpectedValue {
+        return unbox(execute(interpreter, expr));
+    }
+
+    static double unbox(Object value) throws UnexpectedValue {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        throw new UnexpectedValue(value);
+    }
+
+    static Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        expr.setSpecialization(GENERIC);
+        return Interpreter.binaryGeneric(expr.getOperator(), left, right);
+    }
+
+    private static boolean numbers(Object left, Object right) {
+        return left instanceof Double && right instanceof Double;
+    }
+
+    private static boolean strings(Object left, Object right) {
+        return left instanceof String && right instanceof String;
+    }
+
+    private static BinarySpecialization specialize(TokenType operator, Object left, Object right) {
+        boolean numbers = numbers(left, right);
+        boolean strings = strings(left, right);
+        switch (operator) {
+            case COMMA -> {
+                return new Comma();
+            }
+            case PLUS -> {
+                if (numbers) {
+                    return new NumberArithmetic(operator);
+                }
+                if (strings) {
+                    return new StringConcat();
+                }
+            }
+            case MINUS -> {
+                if (numbers) {
+                    return new NumberArithmetic(operator);
+                }
+            }
+            case STAR -> {
+                if (numbers) {
+                    return new NumberArithmetic(operator);
+                }
+            }
+            case SLASH -> {
+                if (numbers) {
+                    return new NumberArithmetic(operator);
+                }
+            }
+            case LESS -> {
+                if (numbers) {
+                    return new NumberComparison(operator);
+                }
+                if (strings) {
+                    return new StringLess();
+                }
+            }
+            case LESS_EQUAL -> {
+                if (numbers) {
+                    return new NumberComparison(operator);
+                }
+                if (strings) {
+                    return new StringLessEqual();
+                }
+            }
+            case GREATER -> {
+                if (numbers) {
+                    return new NumberComparison(operator);
+                }
+                if (strings) {
+                    return new StringGreater();
+                }
+            }
+            case GREATER_EQUAL -> {
+                if (numbers) {
+                    return new NumberComparison(operator);
+                }
+                if (strings) {
+                    return new StringGreaterEqual();
+                }
+            }
+        }
+        return GENERIC;
+    }
+
+    private static final class Uninitialized extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            BinarySpecialization specialized = specialize(expr.getOperator().getType(), left, right);
+            expr.setSpecialization(specialized);
+            return specialized.execute(expr, left, right);
+        }
+    }
+
+    private static final class Generic extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.binaryGeneric(expr.getOperator(), left, right);
+        }
+    }
+
+    private static final class Comma extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return right;
+        }
+    }
+
+    /**
+     * Arithmetic on numbers. Operands are evaluated unboxed; one that turns out not to be a
+     * number deoptimizes the node, which then finishes the operation generically. The operator
+     * is switched on rather than overridden so the call stays monomorphic.
+     */
+    private static final class NumberArithmetic extends BinarySpecialization {
+        private final TokenType operator;
+
+        NumberArithmetic(TokenType operator) {
+            this.operator = operator;
+        }
+
+        private double apply(Expr.Binary expr, double left, double right) {
+            switch (operator) {
+                case PLUS -> {
+                    return left + right;
+                }
+                case MINUS -> {
+                    return left - right;
+                }
+                case STAR -> {
+                    return left * right;
+                }
+                default -> {
+                    if (right == 0.0) {
+                        throw new RuntimeError(expr.getOperator(), "Division by zero");
+                    }
+                    return left / right;
+                }
+            }
+        }
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (numbers(left, right)) {
+                return apply(expr, (double) left, (double) right);
+            }
+            return deoptimize(expr, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedValue e) {
+                return e.getValue();
+            }
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) throws UnexpectedValue {
+            double left;
+            try {
+                left = interpreter.evaluateDouble(expr.getLeft());
+            } catch (UnexpectedValue e) {
+                return unbox(deoptimize(expr, e.getValue(), interpreter.evaluate(expr.getRight())));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(expr.getRight());
+            } catch (UnexpectedValue e) {
+                return unbox(deoptimize(expr, left, e.getValue()));
+            }
+            return apply(expr, left, right);
+        }
+    }
+
+    private static final class NumberComparison extends BinarySpecialization {
+        private final TokenType operator;
+
+        NumberComparison(TokenType operator) {
+            this.operator = operator;
+        }
+
+        private boolean test(double left, double right) {
+            switch (operator) {
+                case LESS -> {
+                    return left < right;
+                }
+                case LESS_EQUAL -> {
+                    return left <= right;
+                }
+                case GREATER -> {
+                    return left > right;
+                }
+                default -> {
+                    return left >= right;
+                }
+            }
+        }
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (numbers(left, right)) {
+                return test((double) left, (double) right);
+            }
+            return deoptimize(expr, left, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left;
+            try {
+                left = interpreter.evaluateDouble(expr.getLeft());
+            } catch (UnexpectedValue e) {
+                return deoptimize(expr, e.getValue(), interpreter.evaluate(expr.getRight()));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(expr.getRight());
+            } catch (UnexpectedValue e) {
+                return deoptimize(expr, left, e.getValue());
+            }
+            return test(left, right);
+        }
+    }
+
+    private static final class StringConcat extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (strings(left, right)) {
+                return (String) left + right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    private static final class StringLess extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (strings(left, right)) {
+                return ((String) left).compareTo((String) right) < 0;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    private static final class StringLessEqual extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (strings(left, right)) {
+                return ((String) left).compareTo((String) right) <= 0;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    private static final class StringGreater extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (strings(left, right)) {
+                return ((String) left).compareTo((String) right) > 0;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    private static final class StringGreaterEqual extends BinarySpecialization {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (strings(left, right)) {
+                return ((String) left).compareTo((String) right) >= 0;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    /**
+     * Carries a value that was not the number an unboxed evaluation expected. Thrown at most
+     * once per node, as the node deoptimizes, so it records no stack trace.
+     */
+    static final class UnexpectedValue extends Exception {
+        private final transient Object value;
+
+        UnexpectedValue(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+
+        Object getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,696 @@
+package org.jlox;
+
+import org.jlox.vm.Chunk;
+import org.jlox.vm.OpCode;
+import org.jlox.vm.VmFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 0xffff;
+    private static final int MAX_GLOBALS = 0xffff;
+    private static final int MAX_JUMP = 0xffff;
+
+    private final Globals globals;
+    private FunctionScope current = null;
+    private int line = 0;
+
+    BytecodeCompiler(Globals globals) {
+        this.globals = globals;
+    }
+
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionScope(null, new VmFunction(null, 0), FunctionType.NONE);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        return endFunction();
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.getValue());
+        line = expr.getName().getLine();
+        setVariable(expr.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.getLeft());
+        if (expr.getOperator().getType() == TokenType.COMMA) {
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            return null;
+        }
+        compile(expr.getRight());
+
+        line = expr.getOperator().getLine();
+        switch (expr.getOperator().getType()) {
+            case BANG_EQUAL -> {
+                emit(OpCode.EQUAL);
+                emit(OpCode.NOT);
+            }
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            case GREATER -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS -> emit(OpCode.LESS);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            case MINUS -> emit(OpCode.SUBTRACT);
+            case PLUS -> emit(OpCode.ADD);
+            case SLASH -> emit(OpCode.DIVIDE);
+            case STAR -> emit(OpCode.MULTIPLY);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.getCallee() instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.getCallee();
+            compile(get.getObject());
+            compileArguments(expr.getArguments());
+            line = get.getName().getLine();
+            emit(OpCode.INVOKE);
+            emitShort(identifierConstant(get.getName().getLexeme()));
+            emit(expr.getArguments().size());
+            return null;
+        }
+
+        if (expr.getCallee() instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.getCallee();
+            line = superExpr.getKeyword().getLine();
+            getVariable("this");
+            compileArguments(expr.getArguments());
+            getSuper(superExpr.getKeyword());
+            line = superExpr.getMethod().getLine();
+            emit(OpCode.SUPER_INVOKE);
+            emitShort(identifierConstant(superExpr.getMethod().getLexeme()));
+            emit(expr.getArguments().size());
+            return null;
+        }
+
+        compile(expr.getCallee());
+        compileArguments(expr.getArguments());
+        line = expr.getParen().getLine();
+        emit(OpCode.CALL);
+        emit(expr.getArguments().size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        line = expr.getName().getLine();
+        emit(OpCode.GET_PROPERTY);
+        emitShort(identifierConstant(expr.getName().getLexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value == null) {
+            emit(OpCode.NIL);
+        } else if (Boolean.TRUE.equals(value)) {
+            emit(OpCode.TRUE);
+        } else if (Boolean.FALSE.equals(value)) {
+            emit(OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT);
+            emitShort(makeConstant(value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.getLeft());
+        if (expr.getOperator().getType() == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        compile(expr.getValue());
+        line = expr.getName().getLine();
+        emit(OpCode.SET_PROPERTY);
+        emitShort(identifierConstant(expr.getName().getLexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.getKeyword().getLine();
+        getVariable("this");
+        getSuper(expr.getKeyword());
+        line = expr.getMethod().getLine();
+        emit(OpCode.GET_SUPER);
+        emitShort(identifierConstant(expr.getMethod().getLexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.getKeyword().getLine();
+        getVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        line = expr.getOperator().getLine();
+        switch (expr.getOperator().getType()) {
+            case MINUS -> emit(OpCode.NEGATE);
+            case BANG -> emit(OpCode.NOT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.getName().getLine();
+        getVariable(expr.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        compile(expr.getCondition());
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.getThenbranch());
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        compile(expr.getElsebranch());
+        patchJump(elseJump);
+        return null;
+    }
+
+    // The body of an inlined call uses the Resolver's slots, which the VM doesn't, so it makes the call.
+    @Override
+    public Void visitInlinedExpr(Expr.Inlined expr) {
+        compile(expr.getCall());
+        return null;
+    }
+
+    @Override
+    public Void visitAnonFunctionExpr(Expr.AnonFunction expr) {
+        Stmt.Function declaration = expr.getDeclaration();
+        function("<anon>", declaration.getParams(), declaration.getBody(), FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.getStatements()) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        Token name = stmt.getName();
+        line = name.getLine();
+        declareVariable(name.getLexeme());
+        emit(OpCode.CLASS);
+        emitShort(identifierConstant(name.getLexeme()));
+        defineVariable(name.getLexeme());
+
+        if (stmt.getSuperclass() != null) {
+            compile(stmt.getSuperclass());
+            beginScope();
+            addLocal("super");
+            getVariable(name.getLexeme());
+            line = stmt.getSuperclass().getName().getLine();
+            emit(OpCode.INHERIT);
+        }
+
+        getVariable(name.getLexeme());
+        for (Stmt.Function method : stmt.getMethods()) {
+            FunctionType type = method.getName().getLexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            function(method.getName().getLexeme(), method.getParams(), method.getBody(), type);
+            emit(OpCode.METHOD);
+            emitShort(identifierConstant(method.getName().getLexeme()));
+        }
+        emit(OpCode.POP);
+
+        if (stmt.getSuperclass() != null) {
+            endScope();
+        }
+
+        if (!stmt.getStaticmethods().isEmpty()) {
+            getVariable(name.getLexeme());
+            for (Stmt.Function method : stmt.getStaticmethods()) {
+                function(method.getName().getLexeme(), method.getParams(), method.getBody(), FunctionType.FUNCTION);
+                emit(OpCode.STATIC_METHOD);
+                emitShort(identifierConstant(method.getName().getLexeme()));
+            }
+            emit(OpCode.POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.getName().getLine();
+        declareVariable(stmt.getName().getLexeme());
+        function(stmt.getName().getLexeme(), stmt.getParams(), stmt.getBody(), FunctionType.FUNCTION);
+        defineVariable(stmt.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.getCondition());
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.getThenbranch());
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if (stmt.getElsebranch() != null) {
+            compile(stmt.getElsebranch());
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.getKeyword().getLine();
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL);
+            emit(0);
+        } else if (stmt.getValue() != null) {
+            compile(stmt.getValue());
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.getName().getLine();
+        if (current.scopeDepth > 0 && stmt.getInitializer() != null && stmt.getStorage() == Storage.BOXED) {
+            // A closure created in the initializer may capture the local, so its slot is taken
+            // and holds nil while the initializer runs. Otherwise the closure would capture one of
+            // the initializer's temporaries instead. Locals no closure captures skip this.
+            emit(OpCode.NIL);
+            addLocal(stmt.getName().getLexeme());
+            compile(stmt.getInitializer());
+            emit(OpCode.SET_LOCAL);
+            emit(current.locals.size() - 1);
+            emit(OpCode.POP);
+            return null;
+        }
+
+        declareVariable(stmt.getName().getLexeme());
+        if (stmt.getInitializer() != null) {
+            compile(stmt.getInitializer());
+        } else {
+            emit(OpCode.NIL);
+        }
+        defineVariable(stmt.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().getCount();
+        compile(stmt.getCondition());
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+
+        Loop loop = new Loop(current.loop, current.scopeDepth);
+        current.loop = loop;
+        compile(stmt.getBody());
+        current.loop = loop.enclosing;
+
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        for (int breakJump : loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope();
+        if (stmt.getInitializer() != null) {
+            compile(stmt.getInitializer());
+        }
+
+        int loopStart = chunk().getCount();
+        compile(stmt.getCondition());
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+
+        Loop loop = new Loop(current.loop, current.scopeDepth);
+        current.loop = loop;
+        compile(stmt.getBody());
+        current.loop = loop.enclosing;
+
+        if (stmt.getIncrement() != null) {
+            compile(stmt.getIncrement());
+            emit(OpCode.POP);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        for (int breakJump : loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        line = stmt.getKeyword().getLine();
+        Loop loop = current.loop;
+        for (int i = current.locals.size() - 1; i >= 0 && current.locals.get(i).depth > loop.depth; i--) {
+            emit(current.locals.get(i).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    private void function(String name, List<Token> params, List<Stmt> body, FunctionType type) {
+        FunctionScope scope = new FunctionScope(current, new VmFunction(name, params.size()), type);
+        current = scope;
+        beginScope();
+        for (Token param : params) {
+            addLocal(param.getLexeme());
+        }
+        for (Stmt statement : body) {
+            compile(statement);
+        }
+        VmFunction function = endFunction();
+
+        emit(OpCode.CLOSURE);
+        emitShort(makeConstant(function));
+        for (Upvalue upvalue : scope.upvalues) {
+            emit(upvalue.isLocal ? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+
+    private VmFunction endFunction() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL);
+            emit(0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+
+        VmFunction function = current.function;
+        function.seal(current.upvalues.size());
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.remove(locals.size() - 1).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private void declareVariable(String name) {
+        if (current.scopeDepth > 0) {
+            addLocal(name);
+        }
+    }
+
+    private void defineVariable(String name) {
+        if (current.scopeDepth == 0) {
+            emit(OpCode.DEFINE_GLOBAL);
+            emitShort(globalSlot(name));
+        }
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Lox.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void getVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(OpCode.GET_LOCAL);
+            emit(arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(OpCode.GET_UPVALUE);
+            emit(arg);
+        } else {
+            emit(OpCode.GET_GLOBAL);
+            emitShort(globalSlot(name));
+        }
+    }
+
+    private void setVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(OpCode.SET_LOCAL);
+            emit(arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(OpCode.SET_UPVALUE);
+            emit(arg);
+        } else {
+            emit(OpCode.SET_GLOBAL);
+            emitShort(globalSlot(name));
+        }
+    }
+
+    private void getSuper(Token keyword) {
+        if (resolveLocal(current, "super") == -1 && resolveUpvalue(current, "super") == -1) {
+            Lox.error(keyword, "Can't use 'super' in a static method.");
+            return;
+        }
+        getVariable("super");
+    }
+
+    private int resolveLocal(FunctionScope scope, String name) {
+        for (int i = scope.locals.size() - 1; i >= 0; i--) {
+            if (scope.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionScope scope, String name) {
+        if (scope.enclosing == null) {
+            return -1;
+        }
+
+        int local = resolveLocal(scope.enclosing, name);
+        if (local != -1) {
+            scope.enclosing.locals.get(local).captured = true;
+            return addUpvalue(scope, local, true);
+        }
+
+        int upvalue = resolveUpvalue(scope.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(scope, upvalue, false);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionScope scope, int index, boolean isLocal) {
+        for (int i = 0; i < scope.upvalues.size(); i++) {
+            Upvalue upvalue = scope.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+        if (scope.upvalues.size() == MAX_UPVALUES) {
+            Lox.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        scope.upvalues.add(new Upvalue(index, isLocal));
+        return scope.upvalues.size() - 1;
+    }
+
+    private int globalSlot(String name) {
+        int slot = globals.slotFor(name);
+        if (slot > MAX_GLOBALS) {
+            Lox.error(line, "Too many global variables.");
+            return 0;
+        }
+        return slot;
+    }
+
+    private int identifierConstant(String name) {
+        return makeConstant(name);
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > MAX_CONSTANTS) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(byte instruction) {
+        emit(instruction);
+        emit(0xff);
+        emit(0xff);
+        return chunk().getCount() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().getCount() - offset - 2;
+        if (jump > MAX_JUMP) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        chunk().patch(offset, (jump >> 8) & 0xff);
+        chunk().patch(offset + 1, jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = chunk().getCount() - loopStart + 2;
+        if (offset > MAX_JUMP) {
+            Lox.error(line, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void emitShort(int value) {
+        emit((value >> 8) & 0xff);
+        emit(value & 0xff);
+    }
+
+    private void emit(int b) {
+        chunk().write(b, line);
+    }
+
+    private Chunk chunk() {
+        return current.function.getChunk();
+    }
+
+    private static class FunctionScope {
+        private final FunctionScope enclosing;
+        private final VmFunction function;
+        private final FunctionType type;
+        private final List<Local> locals = new ArrayList<>();
+        private final List<Upvalue> upvalues = new ArrayList<>();
+        private int scopeDepth = 0;
+        private Loop loop = null;
+
+        FunctionScope(FunctionScope enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // Slot zero holds the callee, or the receiver for methods.
+            boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals.add(new Local(isMethod ? "this" : "", 0));
+        }
+    }
+
+    private static class Local {
+        private final String name;
+        private final int depth;
+        private boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        private final int index;
+        private final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        private final Loop enclosing;
+        private final int depth;
+        private final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int depth) {
+            this.enclosing = enclosing;
+            this.depth = depth;
+        }
+    }
+}
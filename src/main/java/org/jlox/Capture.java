@@ -0,0 +1,23 @@
+package org.jlox;
+
+/**
+ * Where a new closure finds one of its upvalues: in a slot of the frame creating it, or among
+ * that frame's own upvalues.
+ */
+public final class Capture {
+    private final boolean local;
+    private final int index;
+
+    Capture(boolean local, int index) {
+        this.local = local;
+        this.index = index;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+}
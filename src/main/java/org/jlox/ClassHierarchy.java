@@ -0,0 +1,79 @@
+package org.jlox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Whole-program class hierarchy analysis. Counts the method declarations of every class,
+ * wherever it is declared, along with every property name the program assigns. A method name
+ * declared exactly once and never assigned as a field can only ever resolve to that one method,
+ * so method calls on it are marked with a shared {@link UniqueMethod} and bind without the inline
+ * cache. The counts are kept across REPL lines: when a later line declares the name again or
+ * assigns it, the assumption is invalidated and the call sites marked earlier fall back to
+ * their caches.
+ */
+class ClassHierarchy extends AstRewriter {
+    // How many method declarations define each name; kept across REPL lines.
+    private final Map<String, Integer> declarations = new HashMap<>();
+    private final Set<String> fields = new HashSet<>();
+    private final Map<String, UniqueMethod> unique = new HashMap<>();
+
+    @Override
+    String getName() {
+        return "devirtualization";
+    }
+
+    @Override
+    List<Stmt> run(List<Stmt> program) {
+        new Declarations().rewrite(program);
+        unique.values().removeIf(target -> {
+            if (isUnique(target.getName())) {
+                return false;
+            }
+            target.invalidate();
+            return true;
+        });
+        return rewrite(program);
+    }
+
+    private boolean isUnique(String name) {
+        return declarations.getOrDefault(name, 0) == 1 && !fields.contains(name);
+    }
+
+    @Override
+    Expr.Call rewriteCall(Expr.Call expr) {
+        Expr.Call call = super.rewriteCall(expr);
+        if (call.getCallee() instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) call.getCallee();
+            String name = get.getName().getLexeme();
+            if (get.getTarget() == null && isUnique(name)) {
+                get.setTarget(rewrote(unique.computeIfAbsent(name, UniqueMethod::new)));
+            }
+        }
+        return call;
+    }
+
+    private final class Declarations extends AstRewriter {
+        @Override
+        String getName() {
+            return "class declarations";
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            for (Stmt.Function method : stmt.getMethods()) {
+                declarations.merge(method.getName().getLexeme(), 1, Integer::sum);
+            }
+            return super.visitClassStmt(stmt);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            fields.add(expr.getName().getLexeme());
+            return super.visitSetExpr(expr);
+        }
+    }
+}
@@ -0,0 +1,972 @@
+package org.jlox;
+
+import org.jlox.exception.RuntimeError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a resolved program once into a tree of executable nodes. Operators, scope distances
+ * and constant operands are picked when a node is built, so running it involves no visitor
+ * dispatch and no switching on operator types; every node is a small, monomorphic call target.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+    interface ExprNode {
+        Object execute(Environment environment);
+    }
+
+    interface StmtNode {
+        Completion execute(Environment environment);
+    }
+
+    private final Globals globals;
+    private final Environment root = new Environment();
+    // Value of the most recent return statement, handed to the caller with Completion.RETURN.
+    private Object returnValue;
+
+    ClosureCompiler(Globals globals) {
+        this.globals = globals;
+    }
+
+    void run(List<Stmt> statements) {
+        run(compile(statements));
+    }
+
+    void run(StmtNode[] program) {
+        try {
+            executeAll(program, root);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    StmtNode[] compile(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = statements.get(i).accept(this);
+        }
+        return nodes;
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private ExprNode[] compileAll(List<Expr> expressions) {
+        ExprNode[] nodes = new ExprNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private static Completion executeAll(StmtNode[] nodes, Environment environment) {
+        for (StmtNode node : nodes) {
+            Completion completion = node.execute(environment);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        LocalStep step = LocalStep.of(expr);
+        if (step != null) {
+            return step::execute;
+        }
+
+        ExprNode value = compile(expr.getValue());
+        Token name = expr.getName();
+        int slot = expr.getSlot();
+
+        switch (expr.getStorage()) {
+            case LOCAL -> {
+                return environment -> {
+                    Object result = value.execute(environment);
+                    environment.define(slot, result);
+                    return result;
+                };
+            }
+            case BOXED -> {
+                return environment -> {
+                    Object result = value.execute(environment);
+                    ((Upvalue) environment.get(slot)).set(result);
+                    return result;
+                };
+            }
+            case UPVALUE -> {
+                return environment -> {
+                    Object result = value.execute(environment);
+                    environment.getUpvalue(slot).set(result);
+                    return result;
+                };
+            }
+            default -> {
+                return environment -> {
+                    Object result = value.execute(environment);
+                    globals.assign(slot, name, result);
+                    return result;
+                };
+            }
+        }
+    }
+
+    /**
+     * {@code i = i + c} or {@code i = i - c} on a local with a number literal, which reads, adds
+     * and writes back the local in one node. Subtracting c is adding -c.
+     */
+    private static final class LocalStep {
+        private final int slot;
+        private final Token operator;
+        private final Double boxed;
+        private final double delta;
+
+        private LocalStep(int slot, Token operator, Double boxed) {
+            this.slot = slot;
+            this.operator = operator;
+            this.boxed = boxed;
+            this.delta = operator.getType() == TokenType.PLUS ? boxed : -boxed;
+        }
+
+        // Returns null unless the assignment has this shape.
+        static LocalStep of(Expr.Assign expr) {
+            if (expr.getStorage() != Storage.LOCAL || !(expr.getValue() instanceof Expr.Binary)) {
+                return null;
+            }
+            Expr.Binary binary = (Expr.Binary) expr.getValue();
+            TokenType type = binary.getOperator().getType();
+            if ((type != TokenType.PLUS && type != TokenType.MINUS)
+                    || !(binary.getLeft() instanceof Expr.Variable)
+                    || ((Expr.Variable) binary.getLeft()).getStorage() != Storage.LOCAL
+                    || ((Expr.Variable) binary.getLeft()).getSlot() != expr.getSlot()
+                    || !(binary.getRight() instanceof Expr.Literal)
+                    || !(((Expr.Literal) binary.getRight()).getValue() instanceof Double)) {
+                return null;
+            }
+            Double boxed = (Double) ((Expr.Literal) binary.getRight()).getValue();
+            return new LocalStep(expr.getSlot(), binary.getOperator(), boxed);
+        }
+
+        Object execute(Environment environment) {
+            Object value = environment.get(slot);
+            Object result;
+            if (value instanceof Double) {
+                result = (double) value + delta;
+            } else {
+                result = Interpreter.binaryGeneric(operator, value, boxed);
+            }
+            environment.define(slot, result);
+            return result;
+        }
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        Token operator = expr.getOperator();
+        if (expr.getRight() instanceof Expr.Literal
+                && ((Expr.Literal) expr.getRight()).getValue() instanceof Double
+                && expr.getLeft() instanceof Expr.Variable
+                && ((Expr.Variable) expr.getLeft()).getStorage() == Storage.LOCAL) {
+            ExprNode node = localComparison(
+                    operator,
+                    ((Expr.Variable) expr.getLeft()).getSlot(),
+                    (Double) ((Expr.Literal) expr.getRight()).getValue()
+            );
+            if (node != null) {
+                return node;
+            }
+        }
+
+        ExprNode left = compile(expr.getLeft());
+        if (expr.getRight() instanceof Expr.Literal
+                && ((Expr.Literal) expr.getRight()).getValue() instanceof Double) {
+            ExprNode node = binaryWithConstant(operator, left, (Double) ((Expr.Literal) expr.getRight()).getValue());
+            if (node != null) {
+                return node;
+            }
+        }
+
+        ExprNode right = compile(expr.getRight());
+        switch (operator.getType()) {
+            case COMMA -> {
+                return environment -> {
+                    left.execute(environment);
+                    return right.execute(environment);
+                };
+            }
+            case BANG_EQUAL -> {
+                return environment -> !Interpreter.isEqual(left.execute(environment), right.execute(environment));
+            }
+            case EQUAL_EQUAL -> {
+                return environment -> Interpreter.isEqual(left.execute(environment), right.execute(environment));
+            }
+            case PLUS -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a + (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+            case MINUS -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a - (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+            case STAR -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a * (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+            case LESS -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a < (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+            case LESS_EQUAL -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a <= (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+            case GREATER -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a > (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+            case GREATER_EQUAL -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    Object b = right.execute(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a >= (double) b;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, b);
+                };
+            }
+        }
+        // Division and anything else keep the generic semantics, including their error checks.
+        return environment -> Interpreter.binaryGeneric(operator, left.execute(environment), right.execute(environment));
+    }
+
+    /**
+     * Arithmetic and comparisons against a number literal, such as {@code n - 1} or {@code i < 10},
+     * with the literal unboxed once at compile time. Returns null for other operators.
+     */
+    private ExprNode binaryWithConstant(Token operator, ExprNode left, Double boxed) {
+        double constant = boxed;
+        switch (operator.getType()) {
+            case PLUS -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a + constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case MINUS -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a - constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case STAR -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a * constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case SLASH -> {
+                if (constant == 0.0) {
+                    return null;
+                }
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a / constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case LESS -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a < constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case LESS_EQUAL -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a <= constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case GREATER -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a > constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case GREATER_EQUAL -> {
+                return environment -> {
+                    Object a = left.execute(environment);
+                    if (a instanceof Double) {
+                        return (double) a >= constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Comparisons of a local against a number literal, such as a loop condition {@code i < 10},
+     * reading the local directly instead of through a variable node. Returns null for other
+     * operators.
+     */
+    private static ExprNode localComparison(Token operator, int slot, Double boxed) {
+        double constant = boxed;
+        switch (operator.getType()) {
+            case LESS -> {
+                return environment -> {
+                    Object a = environment.get(slot);
+                    if (a instanceof Double) {
+                        return (double) a < constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case LESS_EQUAL -> {
+                return environment -> {
+                    Object a = environment.get(slot);
+                    if (a instanceof Double) {
+                        return (double) a <= constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case GREATER -> {
+                return environment -> {
+                    Object a = environment.get(slot);
+                    if (a instanceof Double) {
+                        return (double) a > constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+            case GREATER_EQUAL -> {
+                return environment -> {
+                    Object a = environment.get(slot);
+                    if (a instanceof Double) {
+                        return (double) a >= constant;
+                    }
+                    return Interpreter.binaryGeneric(operator, a, boxed);
+                };
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode[] arguments = compileAll(expr.getArguments());
+        Token paren = expr.getParen();
+
+        if (expr.getCallee() instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.getCallee();
+            ExprNode object = compile(get.getObject());
+            PropertyCache cache = get.getCache();
+            UniqueMethod target = get.getTarget();
+            Token name = get.getName();
+            return environment -> {
+                Object receiver = object.execute(environment);
+                if (receiver instanceof LoxInstance) {
+                    LoxFunction method = UniqueMethod.findMethod(target, cache, (LoxInstance) receiver, name);
+                    if (method != null) {
+                        return invoke(paren, method, (LoxInstance) receiver, arguments, environment);
+                    }
+                }
+                return call(paren, getProperty(cache, name, receiver), arguments, environment);
+            };
+        }
+        if (expr.getCallee() instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.getCallee();
+            ExprNode superclass = compileSuperclass(superExpr);
+            ExprNode receiver = compile(superExpr.getReceiver());
+            return environment -> {
+                LoxFunction method = findSuperMethod(superExpr, superclass.execute(environment));
+                return invoke(paren, method, (LoxInstance) receiver.execute(environment), arguments, environment);
+            };
+        }
+
+        ExprNode callee = compile(expr.getCallee());
+        return environment -> call(paren, callee.execute(environment), arguments, environment);
+    }
+
+    private static Object call(Token paren, Object callee, ExprNode[] arguments, Environment environment) {
+        List<Object> values = evaluateArguments(arguments, environment);
+
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+
+        if (values.size() != function.arity()) {
+            throw new RuntimeError(
+                    paren,
+                    "Expected " + function.arity() + " arguments but got "
+                            + values.size() + ".");
+        }
+
+        // Compiled functions never call back into the tree-walker, so there is no Interpreter to pass.
+        return function.call(null, values);
+    }
+
+    private static Object invoke(Token paren,
+                                 LoxFunction method,
+                                 LoxInstance receiver,
+                                 ExprNode[] arguments,
+                                 Environment environment) {
+        List<Object> values = evaluateArguments(arguments, environment);
+
+        if (values.size() != method.arity()) {
+            throw new RuntimeError(
+                    paren,
+                    "Expected " + method.arity() + " arguments but got "
+                            + values.size() + ".");
+        }
+
+        return method.call(null, receiver, values);
+    }
+
+    private static List<Object> evaluateArguments(ExprNode[] arguments, Environment environment) {
+        List<Object> values = new ArrayList<>(arguments.length);
+        for (ExprNode argument : arguments) {
+            values.add(argument.execute(environment));
+        }
+        return values;
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        PropertyCache cache = expr.getCache();
+        Token name = expr.getName();
+        if (expr.getObject() instanceof Expr.This && ((Expr.This) expr.getObject()).getStorage() == Storage.LOCAL) {
+            // 'this' in a method's own frame always holds an instance.
+            int slot = ((Expr.This) expr.getObject()).getSlot();
+            return environment -> cache.get((LoxInstance) environment.get(slot), name);
+        }
+
+        ExprNode object = compile(expr.getObject());
+        return environment -> getProperty(cache, name, object.execute(environment));
+    }
+
+    private static Object getProperty(PropertyCache cache, Token name, Object object) {
+        if (object instanceof LoxInstance) {
+            return cache.get((LoxInstance) object, name);
+        }
+        if (object instanceof LoxClass) {
+            return cache.getStatic((LoxClass) object, name);
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.getExpression());
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.getLeft());
+        ExprNode right = compile(expr.getRight());
+
+        if (expr.getOperator().getType() == TokenType.OR) {
+            return environment -> {
+                Object value = left.execute(environment);
+                return Interpreter.isTruthy(value) ? value : right.execute(environment);
+            };
+        }
+        return environment -> {
+            Object value = left.execute(environment);
+            return Interpreter.isTruthy(value) ? right.execute(environment) : value;
+        };
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        ExprNode object = compile(expr.getObject());
+        ExprNode value = compile(expr.getValue());
+        PropertyCache cache = expr.getCache();
+        Token name = expr.getName();
+        return environment -> {
+            Object target = object.execute(environment);
+
+            if (!(target instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.execute(environment);
+            cache.set((LoxInstance) target, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        ExprNode superclass = compileSuperclass(expr);
+        ExprNode receiver = compile(expr.getReceiver());
+        return environment -> {
+            LoxFunction method = findSuperMethod(expr, superclass.execute(environment));
+            return method.bind((LoxInstance) receiver.execute(environment));
+        };
+    }
+
+    private ExprNode compileSuperclass(Expr.Super expr) {
+        return lookUpVariable(expr.getKeyword(), expr.getStorage(), expr.getSlot());
+    }
+
+    private static LoxFunction findSuperMethod(Expr.Super expr, Object superclass) {
+        LoxFunction method = ((LoxClass) superclass).findMethod(expr.getMethod().getLexeme());
+
+        if (method == null) {
+            throw new RuntimeError(
+                    expr.getMethod(),
+                    "Undefined property '" + expr.getMethod().getLexeme() + "'."
+            );
+        }
+        return method;
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return lookUpVariable(expr.getKeyword(), expr.getStorage(), expr.getSlot());
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.getRight());
+        Token operator = expr.getOperator();
+
+        if (operator.getType() == TokenType.MINUS) {
+            return environment -> {
+                Object value = right.execute(environment);
+                if (!(value instanceof Double)) {
+                    throw new RuntimeError(operator, "Operand must be a number.");
+                }
+                return -(double) value;
+            };
+        }
+        return environment -> !Interpreter.isTruthy(right.execute(environment));
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        return lookUpVariable(expr.getName(), expr.getStorage(), expr.getSlot());
+    }
+
+    private ExprNode lookUpVariable(Token name, Storage storage, int slot) {
+        switch (storage) {
+            case LOCAL -> {
+                return environment -> environment.get(slot);
+            }
+            case BOXED -> {
+                return environment -> ((Upvalue) environment.get(slot)).get();
+            }
+            case UPVALUE -> {
+                return environment -> environment.getUpvalue(slot).get();
+            }
+            default -> {
+                return environment -> globals.get(slot, name);
+            }
+        }
+    }
+
+    @Override
+    public ExprNode visitConditionalExpr(Expr.Conditional expr) {
+        ExprNode condition = compile(expr.getCondition());
+        ExprNode thenBranch = compile(expr.getThenbranch());
+        ExprNode elseBranch = compile(expr.getElsebranch());
+        return environment -> Interpreter.isTruthy(condition.execute(environment))
+                ? thenBranch.execute(environment)
+                : elseBranch.execute(environment);
+    }
+
+    @Override
+    public ExprNode visitInlinedExpr(Expr.Inlined expr) {
+        int slot = ((Expr.Variable) expr.getCall().getCallee()).getSlot();
+        Token function = expr.getFunction();
+        ExprNode body = compile(expr.getBody());
+        ExprNode call = compile(expr.getCall());
+        return environment -> Interpreter.isDeclaredBy(globals.get(slot), function)
+                ? body.execute(environment)
+                : call.execute(environment);
+    }
+
+    @Override
+    public ExprNode visitAnonFunctionExpr(Expr.AnonFunction expr) {
+        FunctionCode code = new FunctionCode(expr.getDeclaration(), FunctionType.FUNCTION);
+        List<Capture> captures = expr.getDeclaration().getCaptures();
+        return environment -> new CompiledFunction(code, environment.capture(captures), null);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode[] statements = compile(stmt.getStatements());
+        int slots = stmt.getSlots();
+        if (slots == 0) {
+            return environment -> executeAll(statements, environment);
+        }
+        return environment -> executeAll(statements, new Environment(slots));
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        Expr.Variable superclassExpr = stmt.getSuperclass();
+        ExprNode superclassNode = superclassExpr == null ? null : compile(superclassExpr);
+        String name = stmt.getName().getLexeme();
+        Storage storage = stmt.getStorage();
+        int slot = stmt.getSlot();
+        int superSlot = stmt.getSuperslot();
+        int slots = stmt.getSlots();
+
+        List<FunctionCode> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.getMethods()) {
+            FunctionType type = method.getName().getLexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            methods.add(new FunctionCode(method, type));
+        }
+        List<FunctionCode> staticMethods = new ArrayList<>();
+        for (Stmt.Function staticMethod : stmt.getStaticmethods()) {
+            staticMethods.add(new FunctionCode(staticMethod, FunctionType.FUNCTION));
+        }
+
+        return environment -> {
+            Object superclass = null;
+            if (superclassNode != null) {
+                superclass = superclassNode.execute(environment);
+                if (!(superclass instanceof LoxClass)) {
+                    throw new RuntimeError(superclassExpr.getName(), "Superclass must be a class.");
+                }
+            }
+            declare(environment, storage, slot);
+
+            Environment methodEnvironment = environment;
+            if (superclass != null) {
+                // Top-level code has no frame of its own to keep the superclass in.
+                if (slots > 0) {
+                    methodEnvironment = new Environment(slots);
+                }
+                methodEnvironment.define(superSlot, new Upvalue(superclass));
+            }
+
+            Map<String, LoxFunction> methodTable = new HashMap<>();
+            for (FunctionCode method : methods) {
+                methodTable.put(method.getName(), method.closure(methodEnvironment, null));
+            }
+            Map<String, LoxFunction> staticMethodTable = new HashMap<>();
+            for (FunctionCode staticMethod : staticMethods) {
+                staticMethodTable.put(staticMethod.getName(), staticMethod.closure(environment, null));
+            }
+
+            store(environment, storage, slot, new LoxClass(name, (LoxClass) superclass, methodTable, staticMethodTable));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        LocalStep step = stmt.getExpression() instanceof Expr.Assign
+                ? LocalStep.of((Expr.Assign) stmt.getExpression())
+                : null;
+        if (step != null) {
+            return environment -> {
+                step.execute(environment);
+                return Completion.NORMAL;
+            };
+        }
+
+        ExprNode expression = compile(stmt.getExpression());
+        return environment -> {
+            expression.execute(environment);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        FunctionCode code = new FunctionCode(stmt, FunctionType.FUNCTION);
+        Storage storage = stmt.getStorage();
+        int slot = stmt.getSlot();
+        if (storage == Storage.BOXED) {
+            // The function may capture itself.
+            return environment -> {
+                declare(environment, storage, slot);
+                store(environment, storage, slot, code.closure(environment, null));
+                return Completion.NORMAL;
+            };
+        }
+        return environment -> {
+            store(environment, storage, slot, code.closure(environment, null));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.getCondition());
+        StmtNode thenBranch = stmt.getThenbranch().accept(this);
+
+        if (stmt.getElsebranch() == null) {
+            return environment -> Interpreter.isTruthy(condition.execute(environment))
+                    ? thenBranch.execute(environment)
+                    : Completion.NORMAL;
+        }
+        StmtNode elseBranch = stmt.getElsebranch().accept(this);
+        return environment -> Interpreter.isTruthy(condition.execute(environment))
+                ? thenBranch.execute(environment)
+                : elseBranch.execute(environment);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        if (stmt.getExpression() instanceof Expr.Literal) {
+            String text = Interpreter.stringify(((Expr.Literal) stmt.getExpression()).getValue());
+            return environment -> {
+                System.out.println(text);
+                return Completion.NORMAL;
+            };
+        }
+        if (stmt.getExpression() instanceof Expr.Variable
+                && ((Expr.Variable) stmt.getExpression()).getStorage() == Storage.LOCAL) {
+            int slot = ((Expr.Variable) stmt.getExpression()).getSlot();
+            return environment -> {
+                System.out.println(Interpreter.stringify(environment.get(slot)));
+                return Completion.NORMAL;
+            };
+        }
+
+        ExprNode expression = compile(stmt.getExpression());
+        return environment -> {
+            System.out.println(Interpreter.stringify(expression.execute(environment)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getValue() == null) {
+            return environment -> {
+                returnValue = null;
+                return Completion.RETURN;
+            };
+        }
+        ExprNode value = compile(stmt.getValue());
+        return environment -> {
+            returnValue = value.execute(environment);
+            return Completion.RETURN;
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = stmt.getInitializer() == null ? null : compile(stmt.getInitializer());
+        Storage storage = stmt.getStorage();
+        int slot = stmt.getSlot();
+        if (storage == Storage.BOXED) {
+            // A closure in the initializer may capture the variable being declared.
+            return environment -> {
+                declare(environment, storage, slot);
+                store(environment, storage, slot, initializer == null ? null : initializer.execute(environment));
+                return Completion.NORMAL;
+            };
+        }
+        return environment -> {
+            Object value = initializer == null ? null : initializer.execute(environment);
+            store(environment, storage, slot, value);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.getCondition());
+        StmtNode body = stmt.getBody().accept(this);
+        return environment -> {
+            while (Interpreter.isTruthy(condition.execute(environment))) {
+                Completion completion = body.execute(environment);
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+                if (completion == Completion.RETURN) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        StmtNode initializer = stmt.getInitializer() == null ? null : stmt.getInitializer().accept(this);
+        ExprNode condition = compile(stmt.getCondition());
+        ExprNode increment = stmt.getIncrement() == null ? null : compile(stmt.getIncrement());
+        StmtNode body = stmt.getBody().accept(this);
+        int slots = stmt.getSlots();
+        return enclosing -> {
+            Environment environment = slots == 0 ? enclosing : new Environment(slots);
+            if (initializer != null) {
+                initializer.execute(environment);
+            }
+            while (Interpreter.isTruthy(condition.execute(environment))) {
+                Completion completion = body.execute(environment);
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+                if (completion == Completion.RETURN) {
+                    return completion;
+                }
+                if (increment != null) {
+                    increment.execute(environment);
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt) {
+        return environment -> Completion.BREAK;
+    }
+
+    // Creates a variable holding nil; a boxed one gets a new upvalue.
+    private void declare(Environment environment, Storage storage, int slot) {
+        switch (storage) {
+            case GLOBAL -> globals.define(slot, null);
+            case LOCAL -> environment.define(slot, null);
+            case BOXED -> environment.define(slot, new Upvalue(null));
+        }
+    }
+
+    // Sets a variable being declared, inside its upvalue if declare() already created one.
+    private void store(Environment environment, Storage storage, int slot, Object value) {
+        switch (storage) {
+            case GLOBAL -> globals.define(slot, value);
+            case LOCAL -> environment.define(slot, value);
+            case BOXED -> ((Upvalue) environment.get(slot)).set(value);
+        }
+    }
+
+    /**
+     * The compiled body of a function declaration, shared by every closure created from it.
+     */
+    final class FunctionCode {
+        private final Stmt.Function declaration;
+        private final FunctionType type;
+        private final StmtNode[] body;
+
+        FunctionCode(Stmt.Function declaration, FunctionType type) {
+            this.declaration = declaration;
+            this.type = type;
+            this.body = compile(declaration.getBody());
+        }
+
+        // Creates a closure over the frame it is declared in.
+        CompiledFunction closure(Environment environment, LoxInstance receiver) {
+            return new CompiledFunction(this, environment.capture(declaration.getCaptures()), receiver);
+        }
+
+        Object invoke(Upvalue[] upvalues, LoxInstance receiver, List<Object> arguments) {
+            Environment environment = new Environment(declaration.getSlots(), upvalues);
+
+            int firstParam = 0;
+            if (type != FunctionType.FUNCTION) {
+                environment.define(0, receiver);
+                firstParam = 1;
+            }
+            for (int i = 0; i < arguments.size(); i++) {
+                environment.define(firstParam + i, arguments.get(i));
+            }
+            environment.box(declaration.getBoxedparams());
+
+            Completion completion = executeAll(body, environment);
+
+            if (type == FunctionType.INITIALIZER) {
+                returnValue = null;
+                return receiver;
+            }
+            if (completion == Completion.RETURN) {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
+            }
+            return null;
+        }
+
+        Stmt.Function getDeclaration() {
+            return declaration;
+        }
+
+        FunctionType getType() {
+            return type;
+        }
+
+        String getName() {
+            return declaration.getName().getLexeme();
+        }
+    }
+}
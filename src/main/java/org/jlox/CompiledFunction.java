@@ -0,0 +1,26 @@
+package org.jlox;
+
+import java.util.List;
+
+/**
+ * A function or method produced by the closure-compilation engine. It shares LoxFunction's
+ * arity, binding and initializer rules but runs pre-compiled nodes instead of walking the AST.
+ */
+class CompiledFunction extends LoxFunction {
+    private final ClosureCompiler.FunctionCode code;
+
+    CompiledFunction(ClosureCompiler.FunctionCode code, Upvalue[] upvalues, LoxInstance receiver) {
+        super(code.getDeclaration(), upvalues, code.getType(), receiver);
+        this.code = code;
+    }
+
+    @Override
+    Object call(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        return code.invoke(getUpvalues(), receiver, arguments);
+    }
+
+    @Override
+    public LoxFunction bind(LoxInstance instance) {
+        return new CompiledFunction(code, getUpvalues(), instance);
+    }
+}
@@ -0,0 +1,11 @@
+package org.jlox;
+
+/**
+ * How a statement finished executing. Return and break unwind through the statement visitors
+ * as ordinary return values instead of exceptions; a returned value is held by the Interpreter.
+ */
+enum Completion {
+    NORMAL,
+    RETURN,
+    BREAK
+}
@@ -0,0 +1,116 @@
+package org.jlox;
+
+import org.jlox.exception.RuntimeError;
+
+/**
+ * Evaluates operators whose operands are literals, using the interpreter's own operator
+ * semantics. An operation that would fail at runtime is left alone so the error is still
+ * reported when, and if, the code runs. Comma expressions drop a left operand that has no
+ * effect, and a constant condition picks its branch of a logical or conditional expression.
+ */
+class ConstantFolder extends AstRewriter {
+    @Override
+    String getName() {
+        return "constant folding";
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr rewritten = super.visitBinaryExpr(expr);
+        if (!(rewritten instanceof Expr.Binary)) {
+            return rewritten;
+        }
+        Expr.Binary binary = (Expr.Binary) rewritten;
+
+        if (binary.getOperator().getType() == TokenType.COMMA) {
+            return hasNoEffect(binary.getLeft()) ? rewrote(binary.getRight()) : binary;
+        }
+        if (!(binary.getLeft() instanceof Expr.Literal) || !(binary.getRight() instanceof Expr.Literal)) {
+            return binary;
+        }
+        try {
+            return rewrote(new Expr.Literal(Interpreter.binaryGeneric(
+                    binary.getOperator(),
+                    ((Expr.Literal) binary.getLeft()).getValue(),
+                    ((Expr.Literal) binary.getRight()).getValue()
+            )));
+        } catch (RuntimeError error) {
+            return binary;
+        }
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr rewritten = super.visitGroupingExpr(expr);
+        if (rewritten instanceof Expr.Grouping
+                && ((Expr.Grouping) rewritten).getExpression() instanceof Expr.Literal) {
+            return rewrote(((Expr.Grouping) rewritten).getExpression());
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr rewritten = super.visitLogicalExpr(expr);
+        if (!(rewritten instanceof Expr.Logical)) {
+            return rewritten;
+        }
+        Expr.Logical logical = (Expr.Logical) rewritten;
+        if (!(logical.getLeft() instanceof Expr.Literal)) {
+            return logical;
+        }
+
+        // 'or' keeps a truthy left operand and 'and' a falsey one; otherwise the result is the right.
+        boolean truthy = Interpreter.isTruthy(((Expr.Literal) logical.getLeft()).getValue());
+        boolean isOr = logical.getOperator().getType() == TokenType.OR;
+        return rewrote(truthy == isOr ? logical.getLeft() : logical.getRight());
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr rewritten = super.visitUnaryExpr(expr);
+        if (!(rewritten instanceof Expr.Unary)
+                || !(((Expr.Unary) rewritten).getRight() instanceof Expr.Literal)) {
+            return rewritten;
+        }
+        Expr.Unary unary = (Expr.Unary) rewritten;
+        Object value = ((Expr.Literal) unary.getRight()).getValue();
+
+        if (unary.getOperator().getType() == TokenType.BANG) {
+            return rewrote(new Expr.Literal(!Interpreter.isTruthy(value)));
+        }
+        if (value instanceof Double) {
+            return rewrote(new Expr.Literal(-(double) value));
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        Expr rewritten = super.visitConditionalExpr(expr);
+        if (!(rewritten instanceof Expr.Conditional)
+                || !(((Expr.Conditional) rewritten).getCondition() instanceof Expr.Literal)) {
+            return rewritten;
+        }
+        Expr.Conditional conditional = (Expr.Conditional) rewritten;
+        return rewrote(Interpreter.isTruthy(((Expr.Literal) conditional.getCondition()).getValue())
+                ? conditional.getThenbranch()
+                : conditional.getElsebranch());
+    }
+
+    /**
+     * Whether evaluating the expression can neither change state nor fail. Reading a global can
+     * fail when it is undefined, so only locals count.
+     */
+    private static boolean hasNoEffect(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            return hasNoEffect(((Expr.Grouping) expr).getExpression());
+        }
+        if (expr instanceof Expr.Variable) {
+            return ((Expr.Variable) expr).getStorage() != Storage.GLOBAL;
+        }
+        return expr instanceof Expr.Literal
+                || expr instanceof Expr.This
+                || expr instanceof Expr.AnonFunction;
+    }
+}
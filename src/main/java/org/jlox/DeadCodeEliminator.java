@@ -0,0 +1,79 @@
+package org.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes code that can never run: the untaken branch of an if with a literal condition, loops
+ * whose condition is a falsey literal, and statements following a return or break in the same
+ * block.
+ */
+class DeadCodeEliminator extends AstRewriter {
+    @Override
+    String getName() {
+        return "dead code elimination";
+    }
+
+    @Override
+    List<Stmt> rewrite(List<Stmt> statements) {
+        List<Stmt> rewritten = super.rewrite(statements);
+        for (int i = 0; i < rewritten.size() - 1; i++) {
+            if (alwaysExits(rewritten.get(i))) {
+                addRewrites(rewritten.size() - i - 1);
+                return new ArrayList<>(rewritten.subList(0, i + 1));
+            }
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Stmt rewritten = super.visitIfStmt(stmt);
+        if (!(rewritten instanceof Stmt.If)
+                || !(((Stmt.If) rewritten).getCondition() instanceof Expr.Literal)) {
+            return rewritten;
+        }
+        Stmt.If ifStmt = (Stmt.If) rewritten;
+        boolean truthy = Interpreter.isTruthy(((Expr.Literal) ifStmt.getCondition()).getValue());
+        return rewrote(truthy ? ifStmt.getThenbranch() : ifStmt.getElsebranch());
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        if (isFalsey(stmt.getCondition())) {
+            return rewrote(null);
+        }
+        return super.visitWhileStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        // The initializer still runs, and its variable may live in the loop's own frame.
+        if (isFalsey(stmt.getCondition()) && stmt.getInitializer() == null) {
+            return rewrote(null);
+        }
+        return super.visitForStmt(stmt);
+    }
+
+    private static boolean isFalsey(Expr condition) {
+        return condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).getValue());
+    }
+
+    // Whether control never reaches the statement after this one.
+    private static boolean alwaysExits(Stmt stmt) {
+        if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Break) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block) {
+            List<Stmt> statements = ((Stmt.Block) stmt).getStatements();
+            return !statements.isEmpty() && alwaysExits(statements.get(statements.size() - 1));
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return ifStmt.getElsebranch() != null
+                    && alwaysExits(ifStmt.getThenbranch())
+                    && alwaysExits(ifStmt.getElsebranch());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,9 @@
+package org.jlox;
+
+public enum Engine {
+    TREE,
+    SWITCH,
+    VM,
+    CLOSURE,
+    JIT
+}
@@ -1,69 +1,64 @@
 package org.jlox;
 
-import org.jlox.exception.RuntimeError;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
+/**
+ * The frame of a running function, or of top-level code that declares locals. Locals live in
+ * slots assigned by the Resolver; globals are kept in Globals. Variables of enclosing functions
+ * are reached through the upvalues the function captured when it was created.
+ */
 public class Environment {
-    private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private static final Object[] NO_SLOTS = new Object[0];
+    static final Upvalue[] NO_UPVALUES = new Upvalue[0];
 
-    Environment() {
-        enclosing = null;
-    }
+    private final Object[] slots;
+    private final Upvalue[] upvalues;
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    Environment() {
+        this(0);
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.getLexeme())) {
-            return values.get(name.getLexeme());
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+    // A frame for top-level code, which captures nothing.
+    Environment(int size) {
+        this(size, NO_UPVALUES);
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    Environment(int size, Upvalue[] upvalues) {
+        this.slots = size == 0 ? NO_SLOTS : new Object[size];
+        this.upvalues = upvalues;
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.getLexeme())) {
-            values.put(name.getLexeme(), value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+    void define(int slot, Object value) {
+        slots[slot] = value;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object get(int slot) {
+        return slots[slot];
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.getLexeme(), value);
+    Upvalue getUpvalue(int index) {
+        return upvalues[index];
     }
 
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.getEnclosing();
+    // Moves values a closure will capture (parameters, say) into upvalues.
+    void box(int[] boxedSlots) {
+        for (int slot : boxedSlots) {
+            slots[slot] = new Upvalue(slots[slot]);
         }
-        return environment;
     }
 
-    public Environment getEnclosing() {
-        return enclosing;
+    /**
+     * Collects the upvalues for a closure created in this frame.
+     */
+    Upvalue[] capture(List<Capture> captures) {
+        if (captures.isEmpty()) {
+            return NO_UPVALUES;
+        }
+        Upvalue[] captured = new Upvalue[captures.size()];
+        for (int i = 0; i < captured.length; i++) {
+            Capture capture = captures.get(i);
+            captured[i] = capture.isLocal() ? (Upvalue) slots[capture.getIndex()] : upvalues[capture.getIndex()];
+        }
+        return captured;
     }
 }
@@ -2,7 +2,7 @@ package org.jlox;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr {
 	interface Visitor<R> {
 		R visitAssignExpr(Assign expr);
 		R visitBinaryExpr(Binary expr);
@@ -18,13 +18,45 @@ abstract class Expr {
 		R visitVariableExpr(Variable expr);
 		R visitConditionalExpr(Conditional expr);
 		R visitAnonFunctionExpr(AnonFunction expr);
+		R visitInlinedExpr(Inlined expr);
 	}
 
-	public static class Assign extends Expr {
+	enum Kind {
+		ASSIGN,
+		BINARY,
+		CALL,
+		GET,
+		GROUPING,
+		LITERAL,
+		LOGICAL,
+		SET,
+		SUPER,
+		THIS,
+		UNARY,
+		VARIABLE,
+		CONDITIONAL,
+		ANON_FUNCTION,
+		INLINED
+	}
+
+	private final Kind kind;
+
+	private Expr(Kind kind) {
+		this.kind = kind;
+	}
+
+	final Kind getKind() {
+		return kind;
+	}
+
+	public static final class Assign extends Expr {
 		private final Token name;
 		private final Expr value;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
 
 		Assign(Token name, Expr value) {
+			super(Kind.ASSIGN);
 			this.name = name;
 			this.value = value;
 		}
@@ -41,14 +73,32 @@ abstract class Expr {
 		public Expr getValue() {
 			return this.value;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
 	}
 
-	public static class Binary extends Expr {
+	public static final class Binary extends Expr {
 		private final Expr left;
 		private final Token operator;
 		private final Expr right;
+		private BinarySpecialization specialization = BinarySpecialization.UNINITIALIZED;
 
 		Binary(Expr left, Token operator, Expr right) {
+			super(Kind.BINARY);
 			this.left = left;
 			this.operator = operator;
 			this.right = right;
@@ -70,14 +120,23 @@ abstract class Expr {
 		public Expr getRight() {
 			return this.right;
 		}
+
+		public BinarySpecialization getSpecialization() {
+			return this.specialization;
+		}
+
+		void setSpecialization(BinarySpecialization specialization) {
+			this.specialization = specialization;
+		}
 	}
 
-	public static class Call extends Expr {
+	public static final class Call extends Expr {
 		private final Expr callee;
 		private final Token paren;
 		private final List<Expr> arguments;
 
 		Call(Expr callee, Token paren, List<Expr> arguments) {
+			super(Kind.CALL);
 			this.callee = callee;
 			this.paren = paren;
 			this.arguments = arguments;
@@ -101,11 +160,14 @@ abstract class Expr {
 		}
 	}
 
-	public static class Get extends Expr {
+	public static final class Get extends Expr {
 		private final Expr object;
 		private final Token name;
+		private PropertyCache cache = new PropertyCache();
+		private UniqueMethod target = null;
 
 		Get(Expr object, Token name) {
+			super(Kind.GET);
 			this.object = object;
 			this.name = name;
 		}
@@ -122,12 +184,29 @@ abstract class Expr {
 		public Token getName() {
 			return this.name;
 		}
+
+		public PropertyCache getCache() {
+			return this.cache;
+		}
+
+		void setCache(PropertyCache cache) {
+			this.cache = cache;
+		}
+
+		public UniqueMethod getTarget() {
+			return this.target;
+		}
+
+		void setTarget(UniqueMethod target) {
+			this.target = target;
+		}
 	}
 
-	public static class Grouping extends Expr {
+	public static final class Grouping extends Expr {
 		private final Expr expression;
 
 		Grouping(Expr expression) {
+			super(Kind.GROUPING);
 			this.expression = expression;
 		}
 
@@ -141,10 +220,11 @@ abstract class Expr {
 		}
 	}
 
-	public static class Literal extends Expr {
+	public static final class Literal extends Expr {
 		private final Object value;
 
 		Literal(Object value) {
+			super(Kind.LITERAL);
 			this.value = value;
 		}
 
@@ -158,12 +238,13 @@ abstract class Expr {
 		}
 	}
 
-	public static class Logical extends Expr {
+	public static final class Logical extends Expr {
 		private final Expr left;
 		private final Token operator;
 		private final Expr right;
 
 		Logical(Expr left, Token operator, Expr right) {
+			super(Kind.LOGICAL);
 			this.left = left;
 			this.operator = operator;
 			this.right = right;
@@ -187,12 +268,14 @@ abstract class Expr {
 		}
 	}
 
-	public static class Set extends Expr {
+	public static final class Set extends Expr {
 		private final Expr object;
 		private final Token name;
 		private final Expr value;
+		private PropertyCache cache = new PropertyCache();
 
 		Set(Expr object, Token name, Expr value) {
+			super(Kind.SET);
 			this.object = object;
 			this.name = name;
 			this.value = value;
@@ -214,13 +297,25 @@ abstract class Expr {
 		public Expr getValue() {
 			return this.value;
 		}
+
+		public PropertyCache getCache() {
+			return this.cache;
+		}
+
+		void setCache(PropertyCache cache) {
+			this.cache = cache;
+		}
 	}
 
-	public static class Super extends Expr {
+	public static final class Super extends Expr {
 		private final Token keyword;
 		private final Token method;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
+		private This receiver = null;
 
 		Super(Token keyword, Token method) {
+			super(Kind.SUPER);
 			this.keyword = keyword;
 			this.method = method;
 		}
@@ -237,12 +332,39 @@ abstract class Expr {
 		public Token getMethod() {
 			return this.method;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public This getReceiver() {
+			return this.receiver;
+		}
+
+		void setReceiver(This receiver) {
+			this.receiver = receiver;
+		}
 	}
 
-	public static class This extends Expr {
+	public static final class This extends Expr {
 		private final Token keyword;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
 
 		This(Token keyword) {
+			super(Kind.THIS);
 			this.keyword = keyword;
 		}
 
@@ -254,13 +376,30 @@ abstract class Expr {
 		public Token getKeyword() {
 			return this.keyword;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
 	}
 
-	public static class Unary extends Expr {
+	public static final class Unary extends Expr {
 		private final Token operator;
 		private final Expr right;
 
 		Unary(Token operator, Expr right) {
+			super(Kind.UNARY);
 			this.operator = operator;
 			this.right = right;
 		}
@@ -279,10 +418,13 @@ abstract class Expr {
 		}
 	}
 
-	public static class Variable extends Expr {
+	public static final class Variable extends Expr {
 		private final Token name;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
 
 		Variable(Token name) {
+			super(Kind.VARIABLE);
 			this.name = name;
 		}
 
@@ -294,14 +436,31 @@ abstract class Expr {
 		public Token getName() {
 			return this.name;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
 	}
 
-	public static class Conditional extends Expr {
+	public static final class Conditional extends Expr {
 		private final Expr condition;
 		private final Expr thenBranch;
 		private final Expr elseBranch;
 
 		Conditional(Expr condition, Expr thenBranch, Expr elseBranch) {
+			super(Kind.CONDITIONAL);
 			this.condition = condition;
 			this.thenBranch = thenBranch;
 			this.elseBranch = elseBranch;
@@ -325,13 +484,12 @@ abstract class Expr {
 		}
 	}
 
-	public static class AnonFunction extends Expr {
-		private final List<Token> params;
-		private final List<Stmt> body;
+	public static final class AnonFunction extends Expr {
+		private final Stmt.Function declaration;
 
-		AnonFunction(List<Token> params, List<Stmt> body) {
-			this.params = params;
-			this.body = body;
+		AnonFunction(Stmt.Function declaration) {
+			super(Kind.ANON_FUNCTION);
+			this.declaration = declaration;
 		}
 
 		@Override
@@ -339,11 +497,37 @@ abstract class Expr {
 			return visitor.visitAnonFunctionExpr(this);
 		}
 
-		public List<Token> getParams() {
-			return this.params;
+		public Stmt.Function getDeclaration() {
+			return this.declaration;
+		}
+	}
+
+	public static final class Inlined extends Expr {
+		private final Call call;
+		private final Token function;
+		private final Expr body;
+
+		Inlined(Call call, Token function, Expr body) {
+			super(Kind.INLINED);
+			this.call = call;
+			this.function = function;
+			this.body = body;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitInlinedExpr(this);
+		}
+
+		public Call getCall() {
+			return this.call;
+		}
+
+		public Token getFunction() {
+			return this.function;
 		}
 
-		public List<Stmt> getBody() {
+		public Expr getBody() {
 			return this.body;
 		}
 	}
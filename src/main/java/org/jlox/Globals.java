@@ -0,0 +1,81 @@
+package org.jlox;
+
+import org.jlox.exception.RuntimeError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Globals {
+    // Marks a slot that has been referenced but not defined yet.
+    public static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[64];
+    private Object[] values = new Object[64];
+
+    public Globals() {
+        Arrays.fill(values, UNDEFINED);
+    }
+
+    /**
+     * Returns the slot bound to a global name, allocating one on first use. Slots are never
+     * reused, so a reference resolved before its definition (e.g. in an earlier REPL line)
+     * stays valid once the definition runs.
+     */
+    public int slotFor(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+
+        int created = slots.size();
+        if (created == values.length) {
+            names = Arrays.copyOf(names, created * 2);
+            values = Arrays.copyOf(values, created * 2);
+            Arrays.fill(values, created, values.length, UNDEFINED);
+        }
+        names[created] = name;
+        slots.put(name, created);
+        return created;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    public Object get(int slot) {
+        return values[slot];
+    }
+
+    public boolean isDefined(int slot) {
+        return values[slot] != UNDEFINED;
+    }
+
+    public void define(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    public void define(String name, Object value) {
+        define(slotFor(name), value);
+    }
+
+    Object get(int slot, Token name) {
+        Object value = values[slot];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+        }
+        return value;
+    }
+
+    void assign(int slot, Token name, Object value) {
+        if (values[slot] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+        }
+        values[slot] = value;
+    }
+}
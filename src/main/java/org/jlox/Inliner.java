@@ -0,0 +1,384 @@
+package org.jlox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls to small global functions with a copy of the function's body. A function
+ * qualifies when its body is a single return of an expression that declares nothing, captures
+ * nothing, doesn't use 'this' and can't call back into itself, and when the program never
+ * assigns its global or declares it again. The function's slots are renamed to new slots at the
+ * end of the caller's frame, and the arguments are assigned to them in order before the body
+ * runs. The call is kept as well: if the global doesn't hold the function when the call runs,
+ * because it isn't defined yet or a later REPL line replaced it, the call is made as written.
+ *
+ * <p>Calls are only inlined where there is a frame to extend, so calls in top-level statements
+ * outside any block stay calls.
+ */
+class Inliner extends AstRewriter {
+    // The most nodes an inlined body may have.
+    private static final int MAX_BODY_SIZE = 20;
+
+    // Every global function declared so far, by global slot; kept across REPL lines.
+    private final Map<Integer, Stmt.Function> functions = new HashMap<>();
+    private final Map<Integer, Stmt.Function> inlinable = new HashMap<>();
+    // The size of the frame being rewritten, including slots added for inlined bodies.
+    private int frameSize = 0;
+    private boolean inFrame = false;
+
+    @Override
+    String getName() {
+        return "inlining";
+    }
+
+    @Override
+    List<Stmt> run(List<Stmt> program) {
+        Map<Integer, Integer> declarations = new HashMap<>();
+        for (Stmt statement : program) {
+            int slot = globalDeclaration(statement);
+            if (slot >= 0) {
+                declarations.merge(slot, 1, Integer::sum);
+                functions.remove(slot);
+            }
+        }
+        for (Stmt statement : program) {
+            if (statement instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) statement;
+                if (function.getStorage() == Storage.GLOBAL && declarations.get(function.getSlot()) == 1) {
+                    functions.put(function.getSlot(), function);
+                }
+            }
+        }
+        GlobalWrites writes = new GlobalWrites();
+        writes.rewrite(program);
+        functions.keySet().removeAll(writes.slots);
+
+        findInlinable();
+        frameSize = 0;
+        inFrame = false;
+        return rewrite(program);
+    }
+
+    private static int globalDeclaration(Stmt statement) {
+        if (statement instanceof Stmt.Function && ((Stmt.Function) statement).getStorage() == Storage.GLOBAL) {
+            return ((Stmt.Function) statement).getSlot();
+        }
+        if (statement instanceof Stmt.Var && ((Stmt.Var) statement).getStorage() == Storage.GLOBAL) {
+            return ((Stmt.Var) statement).getSlot();
+        }
+        if (statement instanceof Stmt.Class && ((Stmt.Class) statement).getStorage() == Storage.GLOBAL) {
+            return ((Stmt.Class) statement).getSlot();
+        }
+        return -1;
+    }
+
+    // Keeps the small functions that can't reach themselves through other small functions.
+    private void findInlinable() {
+        inlinable.clear();
+        Map<Integer, Set<Integer>> calls = new HashMap<>();
+        for (Map.Entry<Integer, Stmt.Function> entry : functions.entrySet()) {
+            Stmt.Function function = entry.getValue();
+            if (function.getBody().size() != 1 || !(function.getBody().get(0) instanceof Stmt.Return)) {
+                continue;
+            }
+            Expr value = ((Stmt.Return) function.getBody().get(0)).getValue();
+            Set<Integer> called = new HashSet<>();
+            if (value != null && function.getBoxedparams().length == 0
+                    && size(value, function.getSlots(), called) <= MAX_BODY_SIZE) {
+                calls.put(entry.getKey(), called);
+            }
+        }
+        for (Integer slot : calls.keySet()) {
+            if (!reaches(calls, slot, slot, new HashSet<>())) {
+                inlinable.put(slot, functions.get(slot));
+            }
+        }
+    }
+
+    private static boolean reaches(Map<Integer, Set<Integer>> calls, int from, int target, Set<Integer> seen) {
+        for (int next : calls.getOrDefault(from, Set.of())) {
+            if (next == target || (seen.add(next) && reaches(calls, next, target, seen))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the nodes of a body that can be copied into another frame, collecting the globals
+     * it calls. Returns Integer.MAX_VALUE for anything that can't be copied.
+     */
+    private static int size(Expr expr, int slots, Set<Integer> called) {
+        if (expr instanceof Expr.Literal) {
+            return 1;
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return isCopyable(variable.getStorage(), variable.getSlot(), slots) ? 1 : Integer.MAX_VALUE;
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            return isCopyable(assign.getStorage(), assign.getSlot(), slots)
+                    ? sum(1, size(assign.getValue(), slots, called))
+                    : Integer.MAX_VALUE;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return sum(1, size(((Expr.Grouping) expr).getExpression(), slots, called));
+        }
+        if (expr instanceof Expr.Unary) {
+            return sum(1, size(((Expr.Unary) expr).getRight(), slots, called));
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return sum(1, sum(size(binary.getLeft(), slots, called), size(binary.getRight(), slots, called)));
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return sum(1, sum(size(logical.getLeft(), slots, called), size(logical.getRight(), slots, called)));
+        }
+        if (expr instanceof Expr.Conditional) {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            return sum(1, sum(
+                    size(conditional.getCondition(), slots, called),
+                    sum(size(conditional.getThenbranch(), slots, called),
+                            size(conditional.getElsebranch(), slots, called))
+            ));
+        }
+        if (expr instanceof Expr.Get) {
+            return sum(1, size(((Expr.Get) expr).getObject(), slots, called));
+        }
+        if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set) expr;
+            return sum(1, sum(size(set.getObject(), slots, called), size(set.getValue(), slots, called)));
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if (call.getCallee() instanceof Expr.Variable
+                    && ((Expr.Variable) call.getCallee()).getStorage() == Storage.GLOBAL) {
+                called.add(((Expr.Variable) call.getCallee()).getSlot());
+            }
+            int total = sum(1, size(call.getCallee(), slots, called));
+            for (Expr argument : call.getArguments()) {
+                total = sum(total, size(argument, slots, called));
+            }
+            return total;
+        }
+        if (expr instanceof Expr.Inlined) {
+            Expr.Inlined inlined = (Expr.Inlined) expr;
+            return sum(size(inlined.getCall(), slots, called), size(inlined.getBody(), slots, called));
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static boolean isCopyable(Storage storage, int slot, int slots) {
+        return storage == Storage.GLOBAL || (storage == Storage.LOCAL && slot < slots);
+    }
+
+    private static int sum(int a, int b) {
+        return (int) Math.min((long) a + b, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr.Call call = rewriteCall(expr);
+        if (!inFrame || !(call.getCallee() instanceof Expr.Variable)) {
+            return call;
+        }
+        Expr.Variable callee = (Expr.Variable) call.getCallee();
+        Stmt.Function function = callee.getStorage() == Storage.GLOBAL ? inlinable.get(callee.getSlot()) : null;
+        if (function == null || function.getParams().size() != call.getArguments().size()) {
+            return call;
+        }
+
+        int base = frameSize;
+        frameSize += function.getSlots();
+        Token comma = new Token(TokenType.COMMA, ",", null, call.getParen().getLine());
+        Expr body = ((Stmt.Return) function.getBody().get(0)).getValue().accept(new Renamer(base));
+        for (int i = call.getArguments().size() - 1; i >= 0; i--) {
+            Expr.Assign parameter = new Expr.Assign(function.getParams().get(i), call.getArguments().get(i));
+            parameter.setStorage(Storage.LOCAL);
+            parameter.setSlot(base + i);
+            body = new Expr.Binary(parameter, comma, body);
+        }
+        return rewrote(new Expr.Inlined(call, function.getName(), body));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        int enclosingSize = frameSize;
+        boolean enclosingInFrame = inFrame;
+        frameSize = stmt.getSlots();
+        inFrame = true;
+        Stmt result = super.visitFunctionStmt(stmt);
+        if (frameSize != stmt.getSlots()) {
+            ((Stmt.Function) result).setSlots(frameSize);
+        }
+        frameSize = enclosingSize;
+        inFrame = enclosingInFrame;
+        return result;
+    }
+
+    // A top-level block gets a frame of its own once something is inlined into it.
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if (inFrame && stmt.getSlots() == 0) {
+            return super.visitBlockStmt(stmt);
+        }
+        int enclosingSize = frameSize;
+        boolean enclosingInFrame = inFrame;
+        frameSize = stmt.getSlots();
+        inFrame = true;
+        Stmt result = super.visitBlockStmt(stmt);
+        if (frameSize != stmt.getSlots()) {
+            ((Stmt.Block) result).setSlots(frameSize);
+        }
+        frameSize = enclosingSize;
+        inFrame = enclosingInFrame;
+        return result;
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        if (inFrame && stmt.getSlots() == 0) {
+            return super.visitForStmt(stmt);
+        }
+        int enclosingSize = frameSize;
+        boolean enclosingInFrame = inFrame;
+        frameSize = stmt.getSlots();
+        inFrame = true;
+        Stmt result = super.visitForStmt(stmt);
+        if (frameSize != stmt.getSlots()) {
+            ((Stmt.For) result).setSlots(frameSize);
+        }
+        frameSize = enclosingSize;
+        inFrame = enclosingInFrame;
+        return result;
+    }
+
+    /**
+     * Copies an inlinable body, moving the function's locals to the caller's frame starting at
+     * base. Every node is new, so each call site keeps its own caches and specializations.
+     */
+    private static final class Renamer implements Expr.Visitor<Expr> {
+        private final int base;
+
+        Renamer(int base) {
+            this.base = base;
+        }
+
+        private Expr copy(Expr expr) {
+            return expr.accept(this);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            Expr.Assign copy = new Expr.Assign(expr.getName(), copy(expr.getValue()));
+            copy.setStorage(expr.getStorage());
+            copy.setSlot(expr.getStorage() == Storage.LOCAL ? base + expr.getSlot() : expr.getSlot());
+            return copy;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(copy(expr.getLeft()), expr.getOperator(), copy(expr.getRight()));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            return copyCall(expr);
+        }
+
+        private Expr.Call copyCall(Expr.Call expr) {
+            List<Expr> arguments = expr.getArguments().stream().map(this::copy).toList();
+            return new Expr.Call(copy(expr.getCallee()), expr.getParen(), arguments);
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            return new Expr.Get(copy(expr.getObject()), expr.getName());
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(copy(expr.getExpression()));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            return new Expr.Logical(copy(expr.getLeft()), expr.getOperator(), copy(expr.getRight()));
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            return new Expr.Set(copy(expr.getObject()), expr.getName(), copy(expr.getValue()));
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr) {
+            throw new IllegalStateException("Can't inline 'super'.");
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            throw new IllegalStateException("Can't inline 'this'.");
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(expr.getOperator(), copy(expr.getRight()));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            Expr.Variable copy = new Expr.Variable(expr.getName());
+            copy.setStorage(expr.getStorage());
+            copy.setSlot(expr.getStorage() == Storage.LOCAL ? base + expr.getSlot() : expr.getSlot());
+            return copy;
+        }
+
+        @Override
+        public Expr visitConditionalExpr(Expr.Conditional expr) {
+            return new Expr.Conditional(
+                    copy(expr.getCondition()),
+                    copy(expr.getThenbranch()),
+                    copy(expr.getElsebranch())
+            );
+        }
+
+        @Override
+        public Expr visitAnonFunctionExpr(Expr.AnonFunction expr) {
+            throw new IllegalStateException("Can't inline a function declaration.");
+        }
+
+        @Override
+        public Expr visitInlinedExpr(Expr.Inlined expr) {
+            return new Expr.Inlined(copyCall(expr.getCall()), expr.getFunction(), copy(expr.getBody()));
+        }
+    }
+
+    // Collects the global slots a program assigns to.
+    private static final class GlobalWrites extends AstRewriter {
+        private final Set<Integer> slots = new HashSet<>();
+
+        @Override
+        String getName() {
+            return "global writes";
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            if (expr.getStorage() == Storage.GLOBAL) {
+                slots.add(expr.getSlot());
+            }
+            return super.visitAssignExpr(expr);
+        }
+    }
+}
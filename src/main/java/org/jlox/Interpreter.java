@@ -1,7 +1,5 @@
 package org.jlox;
 
-import org.jlox.exception.BreakError;
-import org.jlox.exception.Return;
 import org.jlox.exception.RuntimeError;
 import org.jlox.primitives.Clock;
 
@@ -9,18 +7,27 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    private final Globals globals = new Globals();
+    private Environment environment = new Environment();
+    // Value of the most recent return statement, handed to the caller with Completion.RETURN.
+    private Object returnValue;
+    // Set when the JIT tier is enabled; loop back-edges count towards the running function's profile.
+    private JitCompiler jit;
+    private JitProfile profile;
+    // Set by a return statement marked as a tail call, for the call it returns.
+    private boolean tailCall;
 
 
     Interpreter() {
         globals.define("clock", new Clock());
     }
 
+    void enableJit(int threshold) {
+        jit = new JitCompiler(this, globals, threshold);
+    }
+
     void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
@@ -39,27 +46,40 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.getValue());
 
-        Integer distance = locals.get(expr);
-
-        if (distance != null) {
-            environment.assignAt(distance, expr.getName(), value);
-        } else {
-            globals.assign(expr.getName(), value);
+        switch (expr.getStorage()) {
+            case GLOBAL -> globals.assign(expr.getSlot(), expr.getName(), value);
+            case LOCAL -> environment.define(expr.getSlot(), value);
+            case BOXED -> ((Upvalue) environment.get(expr.getSlot())).set(value);
+            case UPVALUE -> environment.getUpvalue(expr.getSlot()).set(value);
         }
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        if (expr.getOperator().getType() == TokenType.COMMA) {
-            evaluate(expr.getLeft());
-            return evaluate(expr.getRight());
-        }
+        return expr.getSpecialization().execute(this, expr);
+    }
 
-        Object left = evaluate(expr.getLeft());
-        Object right = evaluate(expr.getRight());
+    /**
+     * Evaluates an operand of a number-specialized operator. Arithmetic is computed without
+     * boxing its result; any other value that is not a number comes back as an UnexpectedValue.
+     */
+    double evaluateDouble(Expr expr) throws BinarySpecialization.UnexpectedValue {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return binary.getSpecialization().executeDouble(this, binary);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).getExpression());
+        }
+        return BinarySpecialization.unbox(evaluate(expr));
+    }
 
-        switch (expr.getOperator().getType()) {
+    /**
+     * The unspecialized operator semantics, used by nodes whose operand types were not stable.
+     */
+    static Object binaryGeneric(Token operator, Object left, Object right) {
+        switch (operator.getType()) {
             case BANG_EQUAL -> {
                 return !isEqual(left, right);
             }
@@ -73,7 +93,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return ((String) left).compareTo(((String) right)) > 0;
                 }
                 throw new RuntimeError(
-                        expr.getOperator(),
+                        operator,
                         "Operands for '>' must be both numbers or both strings."
                 );
             }
@@ -84,7 +104,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return ((String) left).compareTo((String) right) >= 0;
                 } else {
                     throw new RuntimeError(
-                            expr.getOperator(),
+                            operator,
                             "Operands for '>=' must be both numbers or both strings."
                     );
                 }
@@ -96,7 +116,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return ((String) left).compareTo((String) right) < 0;
                 } else {
                     throw new RuntimeError(
-                            expr.getOperator(),
+                            operator,
                             "Operands for '<' must be both numbers or both strings."
                     );
                 }
@@ -108,13 +128,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return ((String) left).compareTo((String) right) <= 0;
                 } else {
                     throw new RuntimeError(
-                            expr.getOperator(),
+                            operator,
                             "Operands for '<=' must be both numbers or both strings."
                     );
                 }
             }
             case MINUS -> {
-                checkNumberOperands(expr.getOperator(), left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             }
             case PLUS -> {
@@ -124,35 +144,58 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return stringify(left) + stringify(right);
                 }
                 throw new RuntimeError(
-                        expr.getOperator(),
+                        operator,
                         "Operands must be two numbers or two strings"
                 );
             }
             case SLASH -> {
-                checkNumberOperands(expr.getOperator(), left, right);
+                checkNumberOperands(operator, left, right);
                 if ((double) right == 0.0) {
-                    throw new RuntimeError(expr.getOperator(), "Division by zero");
+                    throw new RuntimeError(operator, "Division by zero");
                 }
                 return (double) left / (double) right;
             }
             case STAR -> {
-                checkNumberOperands(expr.getOperator(), left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             }
+            case COMMA -> {
+                return right;
+            }
         }
         return null;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.getCallee());
-
-        List<Object> arguments = new ArrayList<>();
-
-        for (Expr argument : expr.getArguments()) {
-            arguments.add(evaluate(argument));
+        // Only the returned call itself is in tail position, not the calls in its operands. A
+        // tail call to a Lox function returns a TailCall for the caller to make once the current
+        // body has returned.
+        boolean tail = tailCall;
+        tailCall = false;
+
+        Object callee;
+        if (expr.getCallee() instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.getCallee();
+            Object object = evaluate(get.getObject());
+            if (object instanceof LoxInstance) {
+                LoxFunction method = UniqueMethod.findMethod(
+                        get.getTarget(), get.getCache(), (LoxInstance) object, get.getName());
+                if (method != null) {
+                    return invoke(expr, method, (LoxInstance) object, tail);
+                }
+            }
+            callee = getProperty(get, object);
+        } else if (expr.getCallee() instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.getCallee();
+            LoxFunction method = findSuperMethod(superExpr);
+            return invoke(expr, method, (LoxInstance) evaluate(superExpr.getReceiver()), tail);
+        } else {
+            callee = evaluate(expr.getCallee());
         }
 
+        List<Object> arguments = evaluateArguments(expr);
+
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.getParen(), "Can only call functions and classes.");
         }
@@ -166,17 +209,48 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                             + arguments.size() + ".");
         }
 
+        if (tail && function instanceof LoxFunction) {
+            return ((LoxFunction) function).tailCall(arguments);
+        }
         return function.call(this, arguments);
     }
 
+    private Object invoke(Expr.Call expr, LoxFunction method, LoxInstance receiver, boolean tail) {
+        List<Object> arguments = evaluateArguments(expr);
+
+        if (arguments.size() != method.arity()) {
+            throw new RuntimeError(
+                    expr.getParen(),
+                    "Expected " + method.arity() + " arguments but got "
+                            + arguments.size() + ".");
+        }
+
+        if (tail) {
+            return new TailCall(method, receiver, arguments);
+        }
+        return method.call(this, receiver, arguments);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+
+        for (Expr argument : expr.getArguments()) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
+    }
+
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.getObject());
+        return getProperty(expr, evaluate(expr.getObject()));
+    }
+
+    private Object getProperty(Expr.Get expr, Object object) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.getName());
+            return expr.getCache().get((LoxInstance) object, expr.getName());
         }
         if (object instanceof LoxClass) {
-            return ((LoxClass) object).getStatic(expr.getName());
+            return expr.getCache().getStatic((LoxClass) object, expr.getName());
         }
         throw new RuntimeError(expr.getName(), "Only instances have properties.");
     }
@@ -216,16 +290,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.getValue());
-        ((LoxInstance) object).set(expr.getName(), value);
+        expr.getCache().set((LoxInstance) object, expr.getName(), value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        Integer distance = locals.get(expr);
-        LoxClass superClass = (LoxClass) environment.getAt(distance, "super");
+        LoxFunction method = findSuperMethod(expr);
+        return method.bind((LoxInstance) evaluate(expr.getReceiver()));
+    }
 
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+    private LoxFunction findSuperMethod(Expr.Super expr) {
+        LoxClass superClass = (LoxClass) lookUpVariable(expr.getKeyword(), expr.getStorage(), expr.getSlot());
 
         LoxFunction method = superClass.findMethod(expr.getMethod().getLexeme());
 
@@ -235,12 +311,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     "Undefined property '" + expr.getMethod().getLexeme() + "'."
             );
         }
-        return method.bind(object);
+        return method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.getKeyword(), expr);
+        return lookUpVariable(expr.getKeyword(), expr.getStorage(), expr.getSlot());
     }
 
     @Override
@@ -261,7 +337,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.getName(), expr);
+        return lookUpVariable(expr.getName(), expr.getStorage(), expr.getSlot());
     }
 
     @Override
@@ -276,19 +352,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitAnonFunctionExpr(Expr.AnonFunction expr) {
-        Token dummyName = new Token(TokenType.IDENTIFIER, "<anon>", null, -1);
-        Stmt.Function functionStmt = new Stmt.Function(dummyName, expr.getParams(), expr.getBody());
-        return new LoxFunction(functionStmt, environment, false);
+        Stmt.Function declaration = expr.getDeclaration();
+        return new LoxFunction(declaration, environment.capture(declaration.getCaptures()), FunctionType.FUNCTION);
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.getStatements(), new Environment(environment));
-        return null;
+    public Object visitInlinedExpr(Expr.Inlined expr) {
+        int slot = ((Expr.Variable) expr.getCall().getCallee()).getSlot();
+        if (isDeclaredBy(globals.get(slot), expr.getFunction())) {
+            return evaluate(expr.getBody());
+        }
+        return evaluate(expr.getCall());
+    }
+
+    /**
+     * Whether a value is a function created from the declaration with this name token. An
+     * inlined call runs the body it copied only while its global still holds that function.
+     */
+    static boolean isDeclaredBy(Object value, Token function) {
+        return value instanceof LoxFunction && ((LoxFunction) value).getDeclaration().getName() == function;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.getSlots() == 0) {
+            // The block's locals, if any, live in the enclosing frame.
+            return executeBlock(stmt.getStatements(), environment);
+        }
+        return executeBlock(stmt.getStatements(), new Environment(stmt.getSlots()));
+    }
+
+    @Override
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.getSuperclass() != null) {
             superclass = evaluate(stmt.getSuperclass());
@@ -296,11 +391,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.getSuperclass().getName(), "Superclass must be a class.");
             }
         }
-        environment.define(stmt.getName().getLexeme(), null);
+        declare(stmt.getStorage(), stmt.getSlot());
 
+        Environment previous = environment;
         if (stmt.getSuperclass() != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            // Top-level code has no frame of its own to keep the superclass in.
+            if (stmt.getSlots() > 0) {
+                environment = new Environment(stmt.getSlots());
+            }
+            environment.define(stmt.getSuperslot(), new Upvalue(superclass));
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
@@ -308,142 +407,259 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 
         for (Stmt.Function method : stmt.getMethods()) {
-            LoxFunction function = new LoxFunction(method, environment, method.getName().getLexeme().equals("init"));
+            FunctionType type = method.getName().getLexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            LoxFunction function = new LoxFunction(method, environment.capture(method.getCaptures()), type);
             methods.put(method.getName().getLexeme(), function);
         }
 
+        environment = previous;
+
         for (Stmt.Function staticmethod : stmt.getStaticmethods()) {
-            LoxFunction function = new LoxFunction(staticmethod, environment, false);
+            LoxFunction function = new LoxFunction(
+                    staticmethod,
+                    environment.capture(staticmethod.getCaptures()),
+                    FunctionType.FUNCTION
+            );
             staticMethods.put(staticmethod.getName().getLexeme(), function);
         }
 
         LoxClass loxClass = new LoxClass(stmt.getName().getLexeme(), (LoxClass) superclass, methods, staticMethods);
 
-        if (superclass != null) {
-            environment = environment.getEnclosing();
-        }
-
-        environment.assign(stmt.getName(), loxClass);
-        return null;
+        store(stmt.getStorage(), stmt.getSlot(), loxClass);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.getExpression());
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.getName().getLexeme(), function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.getStorage() == Storage.BOXED) {
+            // The function may capture itself.
+            declare(Storage.BOXED, stmt.getSlot());
+        }
+        LoxFunction function = new LoxFunction(stmt, environment.capture(stmt.getCaptures()), FunctionType.FUNCTION);
+        store(stmt.getStorage(), stmt.getSlot(), function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.getCondition()))) {
-            execute(stmt.getThenbranch());
+            return execute(stmt.getThenbranch());
         } else if (stmt.getElsebranch() != null) {
-            execute(stmt.getElsebranch());
+            return execute(stmt.getElsebranch());
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.getExpression());
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Returns the call a return statement's value makes, looking through parentheses, or null
+     * when the value is anything else.
+     */
+    static Expr.Call returnedCall(Expr value) {
+        while (value instanceof Expr.Grouping) {
+            value = ((Expr.Grouping) value).getExpression();
+        }
+        return value instanceof Expr.Call ? (Expr.Call) value : null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.getValue() != null) {
+        if (stmt.getTailcall()) {
+            tailCall = true;
+            value = visitCallExpr(returnedCall(stmt.getValue()));
+        } else if (stmt.getValue() != null) {
             value = evaluate(stmt.getValue());
         }
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getStorage() == Storage.BOXED) {
+            // A closure in the initializer may capture the variable being declared.
+            declare(Storage.BOXED, stmt.getSlot());
+        }
         Object value = null;
         if (stmt.getInitializer() != null) {
             value = evaluate(stmt.getInitializer());
         }
-        environment.define(stmt.getName().getLexeme(), value);
-        return null;
+        store(stmt.getStorage(), stmt.getSlot(), value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (isTruthy(evaluate(stmt.getCondition()))) {
+            if (profile != null) {
+                profile.tick();
+            }
+            Completion completion = execute(stmt.getBody());
+            if (completion == Completion.BREAK) {
+                break;
+            }
+            if (completion == Completion.RETURN) {
+                return completion;
+            }
+        }
+
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitForStmt(Stmt.For stmt) {
+        Environment previous = environment;
         try {
+            // The loop variable is declared once and shared by every iteration.
+            if (stmt.getSlots() > 0) {
+                environment = new Environment(stmt.getSlots());
+            }
+            if (stmt.getInitializer() != null) {
+                execute(stmt.getInitializer());
+            }
             while (isTruthy(evaluate(stmt.getCondition()))) {
-                try {
-                    execute(stmt.getBody());
-                } catch (BreakError breakErr) {
+                if (profile != null) {
+                    profile.tick();
+                }
+                Completion completion = execute(stmt.getBody());
+                if (completion == Completion.BREAK) {
                     break;
                 }
+                if (completion == Completion.RETURN) {
+                    return completion;
+                }
+                if (stmt.getIncrement() != null) {
+                    evaluate(stmt.getIncrement());
+                }
             }
-        } catch (BreakError breakErr) {
-            // ignore
+            return Completion.NORMAL;
+        } finally {
+            environment = previous;
         }
-
-        return null;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakError();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    /**
+     * Returns the JIT-compiled code for a function that is about to be called, or null if it
+     * is still interpreted.
+     */
+    JitCode compiledCode(Stmt.Function declaration, FunctionType type) {
+        if (jit == null) {
+            // Only set for functions compiled ahead of time.
+            return declaration.getProfile().getCode();
+        }
+        return jit.compiledCode(declaration, type);
+    }
+
+    Completion executeFunctionBody(Stmt.Function declaration, Environment environment) {
+        if (jit == null) {
+            return executeBlock(declaration.getBody(), environment);
+        }
+        JitProfile caller = profile;
+        profile = declaration.getProfile();
+        try {
+            return executeBlock(declaration.getBody(), environment);
+        } finally {
+            profile = caller;
+        }
+    }
+
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.getLexeme());
+    // Creates a variable holding nil; a boxed one gets a new upvalue.
+    private void declare(Storage storage, int slot) {
+        switch (storage) {
+            case GLOBAL -> globals.define(slot, null);
+            case LOCAL -> environment.define(slot, null);
+            case BOXED -> environment.define(slot, new Upvalue(null));
         }
-        return globals.get(name);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    // Sets a variable being declared, inside its upvalue if declare() already created one.
+    private void store(Storage storage, int slot, Object value) {
+        switch (storage) {
+            case GLOBAL -> globals.define(slot, value);
+            case LOCAL -> environment.define(slot, value);
+            case BOXED -> ((Upvalue) environment.get(slot)).set(value);
+        }
     }
 
-    private Object evaluate(Expr expr) {
+    private Object lookUpVariable(Token name, Storage storage, int slot) {
+        switch (storage) {
+            case LOCAL -> {
+                return environment.get(slot);
+            }
+            case BOXED -> {
+                return ((Upvalue) environment.get(slot)).get();
+            }
+            case UPVALUE -> {
+                return environment.getUpvalue(slot).get();
+            }
+            default -> {
+                return globals.get(slot, name);
+            }
+        }
+    }
+
+    Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
-        return Boolean.TRUE.equals(
-                Optional.ofNullable(object)
-                    .map(o -> {
-                        if (o instanceof Boolean) {
-                            return (boolean) o;
-                        }
-                        return true;
-                    }).orElse(null)
-        );
+    static boolean isTruthy(Object object) {
+        if (object == null) {
+            return false;
+        }
+        if (object instanceof Boolean) {
+            return (boolean) object;
+        }
+        return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) {
             return true;
         }
@@ -453,21 +669,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    private static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) {
             return;
         }
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return;
         }
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) {
             return "nil";
         }
@@ -482,7 +698,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
-    public Environment getGlobals() {
+    public Globals getGlobals() {
         return globals;
     }
 }
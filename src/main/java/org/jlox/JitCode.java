@@ -0,0 +1,10 @@
+package org.jlox;
+
+import java.util.List;
+
+/**
+ * A function body compiled to a JVM class by {@link JitCompiler}.
+ */
+public interface JitCode {
+    Object call(Upvalue[] upvalues, LoxInstance receiver, List<Object> arguments);
+}
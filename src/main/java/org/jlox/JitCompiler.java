@@ -0,0 +1,1253 @@
+package org.jlox;
+
+import org.jlox.jit.ClassFileWriter;
+import org.jlox.jit.Code;
+import org.jlox.jit.JitClassLoader;
+import org.jlox.jit.Label;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles hot functions to JVM classes so HotSpot can optimize them like Java code. The body's
+ * frame lives in JVM local variables, with captured locals boxed in {@link Upvalue}s there, and
+ * the function's own upvalues arrive as an array. Globals, calls and property access go through
+ * {@link JitRuntime}, which keeps the interpreter's semantics for every case the fast paths
+ * don't cover.
+ *
+ * <p>The same code generator backs {@link AotCompiler}, which compiles a whole script up front.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String RUNTIME = "org/jlox/JitRuntime";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+    private static final String TOKEN_TYPE = "Lorg/jlox/Token;";
+    private static final String UPVALUE = "org/jlox/Upvalue";
+    private static final String UPVALUES_TYPE = "[Lorg/jlox/Upvalue;";
+    private static final String BINARY = "(" + OBJECT_TYPE + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE;
+    private static final String COMPARISON = "(" + OBJECT_TYPE + OBJECT_TYPE + TOKEN_TYPE + ")Z";
+
+    // JVM locals of the generated call method; Lox locals follow them.
+    private static final int UPVALUES = 1;
+    private static final int RECEIVER = 2;
+    private static final int ARGUMENTS = 3;
+    private static final int FIRST_LOCAL = 4;
+
+    // Past 2^53 doubles no longer represent every integer, so a counter's long would drift.
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private final Interpreter interpreter;
+    private final Globals globals;
+    private final int threshold;
+    private final JitClassLoader loader = new JitClassLoader(JitCompiler.class.getClassLoader());
+    private int compiledCount = 0;
+
+    private String className;
+    private Code code;
+    private FunctionType type;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    // The kind of function each nested declaration among the constants was created as.
+    private final Map<Stmt.Function, FunctionType> functionTypes = new IdentityHashMap<>();
+    // The first JVM local of the frame's slots, or -1 in top-level code outside any frame.
+    private int frame;
+    private final Deque<Label> loopExits = new ArrayDeque<>();
+    private int nextLocal;
+    // Set while compiling the value of a return that is a tail call.
+    private boolean tailCall;
+
+    JitCompiler(Interpreter interpreter, Globals globals, int threshold) {
+        this.interpreter = interpreter;
+        this.globals = globals;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Counts a call to the function and returns its compiled code, compiling it first if the
+     * function just became hot. Returns null while the function should stay interpreted.
+     */
+    JitCode compiledCode(Stmt.Function declaration, FunctionType type) {
+        JitProfile profile = declaration.getProfile();
+        if (profile.getCode() != null) {
+            return profile.getCode();
+        }
+
+        profile.tick();
+        if (profile.shouldCompile(threshold)) {
+            try {
+                profile.setCode(compile(declaration, type));
+            } catch (ReflectiveOperationException | LinkageError
+                     | IllegalStateException | IllegalArgumentException e) {
+                profile.markFailed();
+            }
+        }
+        return profile.getCode();
+    }
+
+    private JitCode compile(Stmt.Function declaration, FunctionType type) throws ReflectiveOperationException {
+        String name = declaration.getName().getLexeme().replaceAll("[^A-Za-z0-9_]", "_");
+        String className = "org/jlox/jit/Lox$" + name + "$" + (++compiledCount);
+        constants.clear();
+        constantIndices.clear();
+        functionTypes.clear();
+        byte[] bytes = generate(className, declaration, type);
+
+        Class<?> compiled = loader.define(className.replace('/', '.'), bytes);
+        return (JitCode) compiled.getConstructor(Object[].class).newInstance((Object) constants.toArray());
+    }
+
+    /**
+     * Generates a class whose call method runs the function's body. The class takes the
+     * {@link #getConstants() constants} as its only constructor argument; classes generated one
+     * after another share them.
+     */
+    byte[] generate(String className, Stmt.Function declaration, FunctionType type) {
+        return generate(className, declaration, declaration.getBody(), type);
+    }
+
+    /**
+     * Generates a class that runs top-level statements, called with the global environment.
+     */
+    byte[] generateScript(String className, List<Stmt> statements) {
+        return generate(className, null, statements, FunctionType.FUNCTION);
+    }
+
+    List<Object> getConstants() {
+        return constants;
+    }
+
+    FunctionType getFunctionType(Stmt.Function declaration) {
+        return functionTypes.get(declaration);
+    }
+
+    private byte[] generate(String className,
+                            Stmt.Function declaration,
+                            List<Stmt> body,
+                            FunctionType type) {
+        this.className = className;
+        this.type = type;
+        frame = -1;
+        loopExits.clear();
+        nextLocal = FIRST_LOCAL;
+
+        ClassFileWriter writer = new ClassFileWriter(className, OBJECT, "org/jlox/JitCode");
+        writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "constants", "[" + OBJECT_TYPE);
+
+        Code init = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([" + OBJECT_TYPE + ")V");
+        init.aload(0);
+        init.invokespecial(OBJECT, "<init>", "()V");
+        init.aload(0);
+        init.aload(1);
+        init.putfield(className, "constants", "[" + OBJECT_TYPE);
+        init.returnVoid();
+
+        code = writer.addMethod(
+                ClassFileWriter.ACC_PUBLIC,
+                "call",
+                "(" + UPVALUES_TYPE + "Lorg/jlox/LoxInstance;Ljava/util/List;)" + OBJECT_TYPE
+        );
+        if (declaration != null && declaration.getSlots() > 0) {
+            beginScope(declaration.getSlots());
+            int firstParam = 0;
+            if (type != FunctionType.FUNCTION) {
+                code.aload(RECEIVER);
+                code.astore(local(0));
+                firstParam = 1;
+            }
+            for (int i = 0; i < declaration.getParams().size(); i++) {
+                code.aload(ARGUMENTS);
+                code.iconst(i);
+                code.invokeinterface("java/util/List", "get", "(I)" + OBJECT_TYPE);
+                code.astore(local(firstParam + i));
+            }
+            for (int slot : declaration.getBoxedparams()) {
+                code.anew(UPVALUE);
+                code.dup();
+                code.aload(local(slot));
+                code.invokespecial(UPVALUE, "<init>", "(" + OBJECT_TYPE + ")V");
+                code.astore(local(slot));
+            }
+        }
+        statements(body);
+        returnDefault();
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        switch (expr.getStorage()) {
+            case LOCAL -> {
+                compile(expr.getValue());
+                code.dup();
+                code.astore(local(expr.getSlot()));
+            }
+            case BOXED, UPVALUE -> {
+                upvalue(expr.getStorage(), expr.getSlot());
+                compile(expr.getValue());
+                code.dupX1();
+                code.invokevirtual(UPVALUE, "set", "(" + OBJECT_TYPE + ")V");
+            }
+            default -> {
+                constant(globals, "org/jlox/Globals");
+                code.iconst(expr.getSlot());
+                constant(expr.getName(), "org/jlox/Token");
+                compile(expr.getValue());
+                code.invokestatic(RUNTIME, "assignGlobal",
+                        "(Lorg/jlox/Globals;I" + TOKEN_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.getOperator().getType()) {
+            case COMMA -> {
+                compile(expr.getLeft());
+                code.pop();
+                compile(expr.getRight());
+            }
+            case PLUS -> binary(expr, "add");
+            case MINUS -> binary(expr, "subtract");
+            case STAR -> binary(expr, "multiply");
+            case SLASH -> binary(expr, "divide");
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> {
+                condition(expr);
+                code.invokestatic(RUNTIME, "box", "(Z)" + OBJECT_TYPE);
+            }
+            default -> binary(expr, "binary");
+        }
+        return null;
+    }
+
+    private void binary(Expr.Binary expr, String helper) {
+        compile(expr.getLeft());
+        compile(expr.getRight());
+        constant(expr.getOperator(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, helper, BINARY);
+    }
+
+    /**
+     * Leaves the truthiness of the expression on the stack as an int, skipping the Boolean
+     * for comparisons and negations.
+     */
+    private void condition(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            condition(((Expr.Grouping) expr).getExpression());
+            return;
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).getOperator().getType() == TokenType.BANG) {
+            condition(((Expr.Unary) expr).getRight());
+            code.iconst(1);
+            code.ixor();
+            return;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            String helper = switch (binary.getOperator().getType()) {
+                case LESS -> "isLess";
+                case LESS_EQUAL -> "isLessEqual";
+                case GREATER -> "isGreater";
+                case GREATER_EQUAL -> "isGreaterEqual";
+                case EQUAL_EQUAL, BANG_EQUAL -> "isEqual";
+                default -> null;
+            };
+            if (helper != null) {
+                compile(binary.getLeft());
+                compile(binary.getRight());
+                if (helper.equals("isEqual")) {
+                    code.invokestatic(RUNTIME, helper, "(" + OBJECT_TYPE + OBJECT_TYPE + ")Z");
+                    if (binary.getOperator().getType() == TokenType.BANG_EQUAL) {
+                        code.iconst(1);
+                        code.ixor();
+                    }
+                } else {
+                    constant(binary.getOperator(), "org/jlox/Token");
+                    code.invokestatic(RUNTIME, helper, COMPARISON);
+                }
+                return;
+            }
+        }
+        compile(expr);
+        code.invokestatic(RUNTIME, "isTruthy", "(" + OBJECT_TYPE + ")Z");
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // Only the returned call itself is in tail position, not the calls in its operands.
+        boolean tail = tailCall;
+        tailCall = false;
+        String invoke = tail ? "tailInvoke" : "invoke";
+        String call = tail ? "tailCall" : "call";
+
+        if (expr.getCallee() instanceof Expr.Super) {
+            Expr.Super callee = (Expr.Super) expr.getCallee();
+            constant(interpreter, "org/jlox/Interpreter");
+            superMethod(callee);
+            compile(callee.getReceiver());
+            arguments(expr.getArguments());
+            constant(expr.getParen(), "org/jlox/Token");
+            code.invokestatic(RUNTIME, invoke,
+                    "(Lorg/jlox/Interpreter;Lorg/jlox/LoxFunction;" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + ")"
+                            + OBJECT_TYPE);
+            return null;
+        }
+        if (expr.getCallee() instanceof Expr.Get) {
+            invoke(expr, (Expr.Get) expr.getCallee(), invoke, call);
+            return null;
+        }
+
+        constant(interpreter, "org/jlox/Interpreter");
+        compile(expr.getCallee());
+        arguments(expr.getArguments());
+        constant(expr.getParen(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, call,
+                "(Lorg/jlox/Interpreter;" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    // Calls a method straight on the receiver when it resolves to one, as the interpreter does.
+    private void invoke(Expr.Call expr, Expr.Get callee, String invoke, String call) {
+        int object = nextLocal++;
+        int method = nextLocal++;
+        Label generic = new Label();
+        Label end = new Label();
+
+        compile(callee.getObject());
+        code.astore(object);
+        code.aload(object);
+        if (callee.getTarget() == null) {
+            code.aconstNull();
+        } else {
+            constant(callee.getTarget(), "org/jlox/UniqueMethod");
+        }
+        constant(callee.getCache(), "org/jlox/PropertyCache");
+        constant(callee.getName(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, "findMethod",
+                "(" + OBJECT_TYPE + "Lorg/jlox/UniqueMethod;Lorg/jlox/PropertyCache;" + TOKEN_TYPE + ")"
+                        + "Lorg/jlox/LoxFunction;");
+        code.astore(method);
+        code.aload(method);
+        code.ifnull(generic);
+
+        constant(interpreter, "org/jlox/Interpreter");
+        code.aload(method);
+        code.aload(object);
+        arguments(expr.getArguments());
+        constant(expr.getParen(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, invoke,
+                "(Lorg/jlox/Interpreter;Lorg/jlox/LoxFunction;" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + ")"
+                        + OBJECT_TYPE);
+        code.goTo(end);
+
+        code.mark(generic);
+        code.setStackDepth(code.getStackDepth() - 1);
+        constant(interpreter, "org/jlox/Interpreter");
+        code.aload(object);
+        constant(callee.getCache(), "org/jlox/PropertyCache");
+        constant(callee.getName(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, "getProperty",
+                "(" + OBJECT_TYPE + "Lorg/jlox/PropertyCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        arguments(expr.getArguments());
+        constant(expr.getParen(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, call,
+                "(Lorg/jlox/Interpreter;" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        code.mark(end);
+
+        nextLocal -= 2;
+    }
+
+    private void arguments(List<Expr> arguments) {
+        code.iconst(arguments.size());
+        code.anewarray(OBJECT);
+        for (int i = 0; i < arguments.size(); i++) {
+            code.dup();
+            code.iconst(i);
+            compile(arguments.get(i));
+            code.aastore();
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        constant(expr.getCache(), "org/jlox/PropertyCache");
+        constant(expr.getName(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, "getProperty",
+                "(" + OBJECT_TYPE + "Lorg/jlox/PropertyCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value == null) {
+            code.aconstNull();
+        } else if (value instanceof Boolean) {
+            code.getstatic("java/lang/Boolean", (Boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else {
+            constant(value, OBJECT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        Label end = new Label();
+        compile(expr.getLeft());
+        code.dup();
+        code.invokestatic(RUNTIME, "isTruthy", "(" + OBJECT_TYPE + ")Z");
+        if (expr.getOperator().getType() == TokenType.OR) {
+            code.ifne(end);
+        } else {
+            code.ifeq(end);
+        }
+        code.pop();
+        compile(expr.getRight());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        constant(expr.getName(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, "checkInstance", "(" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        constant(expr.getCache(), "org/jlox/PropertyCache");
+        constant(expr.getName(), "org/jlox/Token");
+        compile(expr.getValue());
+        code.invokestatic(RUNTIME, "setProperty",
+                "(" + OBJECT_TYPE + "Lorg/jlox/PropertyCache;" + TOKEN_TYPE + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        superMethod(expr);
+        compile(expr.getReceiver());
+        code.invokestatic(RUNTIME, "bind", "(Lorg/jlox/LoxFunction;" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    private void superMethod(Expr.Super expr) {
+        load(expr.getKeyword(), expr.getStorage(), expr.getSlot());
+        constant(expr.getMethod(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, "findSuperMethod", "(" + OBJECT_TYPE + TOKEN_TYPE + ")Lorg/jlox/LoxFunction;");
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.getKeyword(), expr.getStorage(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        if (expr.getOperator().getType() == TokenType.MINUS) {
+            constant(expr.getOperator(), "org/jlox/Token");
+            code.invokestatic(RUNTIME, "negate", "(" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        } else {
+            code.invokestatic(RUNTIME, "not", "(" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        load(expr.getName(), expr.getStorage(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+        condition(expr.getCondition());
+        code.ifeq(elseBranch);
+        compile(expr.getThenbranch());
+        code.goTo(end);
+        code.mark(elseBranch);
+        code.setStackDepth(code.getStackDepth() - 1);
+        compile(expr.getElsebranch());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitAnonFunctionExpr(Expr.AnonFunction expr) {
+        function(expr.getDeclaration(), FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitInlinedExpr(Expr.Inlined expr) {
+        Label call = new Label();
+        Label end = new Label();
+        constant(globals, "org/jlox/Globals");
+        code.iconst(((Expr.Variable) expr.getCall().getCallee()).getSlot());
+        constant(expr.getFunction(), "org/jlox/Token");
+        code.invokestatic(RUNTIME, "isDeclaredBy", "(Lorg/jlox/Globals;I" + TOKEN_TYPE + ")Z");
+        code.ifeq(call);
+        compile(expr.getBody());
+        code.goTo(end);
+        code.mark(call);
+        code.setStackDepth(code.getStackDepth() - 1);
+        compile(expr.getCall());
+        code.mark(end);
+        return null;
+    }
+
+    // Leaves a new closure on the stack, capturing its upvalues from the current frame.
+    private void function(Stmt.Function declaration, FunctionType type) {
+        functionTypes.put(declaration, type);
+        constant(declaration, OBJECT);
+        List<Capture> captures = declaration.getCaptures();
+        if (captures.isEmpty()) {
+            code.getstatic(RUNTIME, "NO_UPVALUES", UPVALUES_TYPE);
+        } else {
+            code.iconst(captures.size());
+            code.anewarray(UPVALUE);
+            for (int i = 0; i < captures.size(); i++) {
+                Capture capture = captures.get(i);
+                code.dup();
+                code.iconst(i);
+                upvalue(capture.isLocal() ? Storage.BOXED : Storage.UPVALUE, capture.getIndex());
+                code.aastore();
+            }
+        }
+        code.invokestatic(RUNTIME, type == FunctionType.FUNCTION ? "function" : "method",
+                "(" + OBJECT_TYPE + UPVALUES_TYPE + ")Lorg/jlox/LoxFunction;");
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.getSlots() == 0) {
+            statements(stmt.getStatements());
+            return null;
+        }
+        beginScope(stmt.getSlots());
+        statements(stmt.getStatements());
+        endScope();
+        return null;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        int superclass = nextLocal++;
+        if (stmt.getSuperclass() != null) {
+            compile(stmt.getSuperclass());
+            constant(stmt.getSuperclass().getName(), "org/jlox/Token");
+            code.invokestatic(RUNTIME, "checkSuperclass", "(" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        } else {
+            code.aconstNull();
+        }
+        code.astore(superclass);
+        declare(stmt.getStorage(), stmt.getSlot());
+
+        int methods = nextLocal++;
+        // Top-level code has no frame of its own to keep the superclass in.
+        boolean scope = stmt.getSlots() > 0;
+        if (scope) {
+            beginScope(stmt.getSlots());
+        }
+        if (stmt.getSuperclass() != null) {
+            code.anew(UPVALUE);
+            code.dup();
+            code.aload(superclass);
+            code.invokespecial(UPVALUE, "<init>", "(" + OBJECT_TYPE + ")V");
+            code.astore(local(stmt.getSuperslot()));
+        }
+        functions(stmt.getMethods(), true);
+        code.astore(methods);
+        if (scope) {
+            endScope();
+        }
+
+        store(stmt.getStorage(), stmt.getSlot(), () -> {
+            constant(stmt.getName().getLexeme(), "java/lang/String");
+            code.aload(superclass);
+            code.aload(methods);
+            functions(stmt.getStaticmethods(), false);
+            code.invokestatic(RUNTIME, "createClass",
+                    "(Ljava/lang/String;" + OBJECT_TYPE + "[Lorg/jlox/LoxFunction;[Lorg/jlox/LoxFunction;)"
+                            + OBJECT_TYPE);
+        });
+        nextLocal -= 2;
+        return null;
+    }
+
+    // Leaves an array of closures over the current frame on the stack.
+    private void functions(List<Stmt.Function> declarations, boolean methods) {
+        code.iconst(declarations.size());
+        code.anewarray("org/jlox/LoxFunction");
+        for (int i = 0; i < declarations.size(); i++) {
+            Stmt.Function declaration = declarations.get(i);
+            FunctionType type = FunctionType.FUNCTION;
+            if (methods) {
+                type = declaration.getName().getLexeme().equals("init")
+                        ? FunctionType.INITIALIZER
+                        : FunctionType.METHOD;
+            }
+            code.dup();
+            code.iconst(i);
+            function(declaration, type);
+            code.aastore();
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        code.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // A boxed function may capture itself, so its upvalue has to exist first.
+        if (stmt.getStorage() == Storage.BOXED) {
+            declare(Storage.BOXED, stmt.getSlot());
+        }
+        store(stmt.getStorage(), stmt.getSlot(), () -> function(stmt, FunctionType.FUNCTION));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+        condition(stmt.getCondition());
+        code.ifeq(elseBranch);
+        stmt.getThenbranch().accept(this);
+        code.goTo(end);
+        code.mark(elseBranch);
+        if (stmt.getElsebranch() != null) {
+            stmt.getElsebranch().accept(this);
+        }
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        code.invokestatic(RUNTIME, "print", "(" + OBJECT_TYPE + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getValue() == null) {
+            returnDefault();
+            return null;
+        }
+        tailCall = stmt.getTailcall() && type != FunctionType.INITIALIZER;
+        compile(stmt.getValue());
+        if (type == FunctionType.INITIALIZER) {
+            code.pop();
+            code.aload(RECEIVER);
+        }
+        code.areturn();
+        return null;
+    }
+
+    private void returnDefault() {
+        if (type == FunctionType.INITIALIZER) {
+            code.aload(RECEIVER);
+        } else {
+            code.aconstNull();
+        }
+        code.areturn();
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getStorage() == Storage.BOXED) {
+            declare(Storage.BOXED, stmt.getSlot());
+        }
+        store(stmt.getStorage(), stmt.getSlot(), () -> {
+            if (stmt.getInitializer() != null) {
+                compile(stmt.getInitializer());
+            } else {
+                code.aconstNull();
+            }
+        });
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label start = new Label();
+        Label exit = new Label();
+        code.mark(start);
+        condition(stmt.getCondition());
+        code.ifeq(exit);
+        loopExits.push(exit);
+        stmt.getBody().accept(this);
+        loopExits.pop();
+        code.goTo(start);
+        code.mark(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        boolean scope = stmt.getSlots() > 0;
+        if (scope) {
+            beginScope(stmt.getSlots());
+        }
+        if (!countedLoop(stmt)) {
+            if (stmt.getInitializer() != null) {
+                stmt.getInitializer().accept(this);
+            }
+            Label start = new Label();
+            Label exit = new Label();
+            code.mark(start);
+            condition(stmt.getCondition());
+            code.ifeq(exit);
+            loopExits.push(exit);
+            stmt.getBody().accept(this);
+            loopExits.pop();
+            if (stmt.getIncrement() != null) {
+                compile(stmt.getIncrement());
+                code.pop();
+            }
+            code.goTo(start);
+            code.mark(exit);
+        }
+        if (scope) {
+            endScope();
+        }
+        return null;
+    }
+
+    /**
+     * Compiles {@code for (var i = 0; i < n; i = i + 1)} with the counter in a long. The
+     * comparison and the increment run on the long, and the variable's boxed value is only
+     * created when the body reads it. Values stay exactly those double arithmetic would
+     * produce: the counter starts and steps by whole numbers, and once it would leave the range
+     * where doubles are exact integers the loop carries on with the boxed value instead.
+     * Returns false, emitting nothing, for any other loop.
+     */
+    private boolean countedLoop(Stmt.For loop) {
+        if (!(loop.getInitializer() instanceof Stmt.Var)) {
+            return false;
+        }
+        Stmt.Var declaration = (Stmt.Var) loop.getInitializer();
+        int slot = declaration.getSlot();
+        if (declaration.getStorage() != Storage.LOCAL
+                || !(declaration.getInitializer() instanceof Expr.Literal)
+                || !isExactInteger(((Expr.Literal) declaration.getInitializer()).getValue())
+                || !(loop.getCondition() instanceof Expr.Binary)
+                || !(loop.getIncrement() instanceof Expr.Assign)) {
+            return false;
+        }
+
+        Expr.Binary condition = (Expr.Binary) loop.getCondition();
+        String comparison = switch (condition.getOperator().getType()) {
+            case LESS -> "isLess";
+            case LESS_EQUAL -> "isLessEqual";
+            case GREATER -> "isGreater";
+            case GREATER_EQUAL -> "isGreaterEqual";
+            default -> null;
+        };
+        if (comparison == null || !isVariable(condition.getLeft(), slot)) {
+            return false;
+        }
+
+        Expr.Assign increment = (Expr.Assign) loop.getIncrement();
+        if (increment.getStorage() != Storage.LOCAL || increment.getSlot() != slot
+                || !(increment.getValue() instanceof Expr.Binary)) {
+            return false;
+        }
+        Expr.Binary step = (Expr.Binary) increment.getValue();
+        TokenType stepOperator = step.getOperator().getType();
+        if ((stepOperator != TokenType.PLUS && stepOperator != TokenType.MINUS)
+                || !isVariable(step.getLeft(), slot)
+                || !(step.getRight() instanceof Expr.Literal)) {
+            return false;
+        }
+        Object stepValue = ((Expr.Literal) step.getRight()).getValue();
+        if (!isExactInteger(stepValue) || Math.abs((double) stepValue) > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        CounterUses uses = new CounterUses(slot);
+        uses.scan(condition.getRight());
+        uses.scan(loop.getBody());
+        if (uses.written) {
+            return false;
+        }
+
+        declaration.accept(this);
+        Counter counter = new Counter(local(slot), uses.read);
+        code.ldc((long) (double) ((Expr.Literal) declaration.getInitializer()).getValue());
+        code.lstore(counter.value);
+        code.iconst(1);
+        code.istore(counter.exact);
+
+        Label start = new Label();
+        Label exit = new Label();
+        code.mark(start);
+        counter.compare(condition, comparison);
+        code.ifeq(exit);
+        loopExits.push(exit);
+        loop.getBody().accept(this);
+        loopExits.pop();
+        long delta = (long) (double) stepValue;
+        counter.step(step, stepOperator == TokenType.PLUS ? delta : -delta);
+        code.goTo(start);
+        code.mark(exit);
+        nextLocal -= 3;
+        return true;
+    }
+
+    private static boolean isExactInteger(Object value) {
+        if (!(value instanceof Double)) {
+            return false;
+        }
+        double number = (double) value;
+        // Negative zero prints differently from the zero a long would give back.
+        return number == Math.rint(number) && Math.abs(number) <= MAX_EXACT_INTEGER
+                && Double.doubleToRawLongBits(number) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    private static boolean isVariable(Expr expr, int slot) {
+        return expr instanceof Expr.Variable
+                && ((Expr.Variable) expr).getStorage() == Storage.LOCAL
+                && ((Expr.Variable) expr).getSlot() == slot;
+    }
+
+    /**
+     * JVM locals behind a counted loop's variable: the long value, a flag that is cleared once
+     * that value may no longer be exact, and the variable's own local, which holds the boxed
+     * value. A loop that reads the variable boxes it on every step; one that doesn't leaves
+     * null there and boxes it only if it has to leave the fast path.
+     */
+    private final class Counter {
+        private final int variable;
+        private final boolean read;
+        private final int value;
+        private final int exact;
+
+        Counter(int variable, boolean read) {
+            this.variable = variable;
+            this.read = read;
+            this.value = nextLocal;
+            this.exact = nextLocal + 2;
+            nextLocal += 3;
+        }
+
+        // Leaves the boxed value on the stack, creating it first if the long has moved on.
+        void box() {
+            Label boxed = new Label();
+            code.aload(variable);
+            code.dup();
+            code.ifnonnull(boxed);
+            code.pop();
+            code.lload(value);
+            code.l2d();
+            code.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            code.dup();
+            code.astore(variable);
+            code.mark(boxed);
+        }
+
+        // The bound is evaluated first; reading the counter has no side effects to reorder.
+        void compare(Expr.Binary condition, String comparison) {
+            int bound = nextLocal++;
+            Label generic = new Label();
+            Label end = new Label();
+            compile(condition.getRight());
+            code.astore(bound);
+            code.iload(exact);
+            code.ifeq(generic);
+            code.lload(value);
+            code.l2d();
+            code.aload(bound);
+            constant(condition.getOperator(), "org/jlox/Token");
+            code.invokestatic(RUNTIME, comparison, "(D" + OBJECT_TYPE + TOKEN_TYPE + ")Z");
+            code.goTo(end);
+            code.mark(generic);
+            code.setStackDepth(code.getStackDepth() - 1);
+            box();
+            code.aload(bound);
+            constant(condition.getOperator(), "org/jlox/Token");
+            code.invokestatic(RUNTIME, comparison, COMPARISON);
+            code.mark(end);
+            nextLocal--;
+        }
+
+        void step(Expr.Binary step, long delta) {
+            Label generic = new Label();
+            Label end = new Label();
+            code.iload(exact);
+            code.ifeq(generic);
+            code.lload(value);
+            if (delta >= 0) {
+                code.ldc(MAX_EXACT_INTEGER - delta);
+                code.lcmp();
+                code.ifgt(generic);
+            } else {
+                code.ldc(-MAX_EXACT_INTEGER - delta);
+                code.lcmp();
+                code.iflt(generic);
+            }
+            code.lload(value);
+            code.ldc(delta);
+            code.ladd();
+            code.lstore(value);
+            if (read) {
+                code.lload(value);
+                code.l2d();
+                code.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            } else {
+                code.aconstNull();
+            }
+            code.astore(variable);
+            code.goTo(end);
+
+            code.mark(generic);
+            code.iconst(0);
+            code.istore(exact);
+            box();
+            compile(step.getRight());
+            constant(step.getOperator(), "org/jlox/Token");
+            code.invokestatic(RUNTIME, step.getOperator().getType() == TokenType.PLUS ? "add" : "subtract", BINARY);
+            code.astore(variable);
+            code.mark(end);
+        }
+    }
+
+    /**
+     * Records how code in a counted loop's frame uses its variable. The variable is never
+     * captured, so nested functions and classes can't touch it and aren't scanned.
+     */
+    private static final class CounterUses implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final int slot;
+        private boolean read = false;
+        private boolean written = false;
+
+        CounterUses(int slot) {
+            this.slot = slot;
+        }
+
+        void scan(Expr expr) {
+            if (expr != null) {
+                expr.accept(this);
+            }
+        }
+
+        void scan(Stmt stmt) {
+            if (stmt != null) {
+                stmt.accept(this);
+            }
+        }
+
+        private void scanAll(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            if (expr.getStorage() == Storage.LOCAL && expr.getSlot() == slot) {
+                written = true;
+            }
+            scan(expr.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.getLeft());
+            scan(expr.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            scan(expr.getCallee());
+            for (Expr argument : expr.getArguments()) {
+                scan(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            scan(expr.getObject());
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            scan(expr.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.getLeft());
+            scan(expr.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            scan(expr.getObject());
+            scan(expr.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            scan(expr.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.getStorage() == Storage.LOCAL && expr.getSlot() == slot) {
+                read = true;
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitConditionalExpr(Expr.Conditional expr) {
+            scan(expr.getCondition());
+            scan(expr.getThenbranch());
+            scan(expr.getElsebranch());
+            return null;
+        }
+
+        @Override
+        public Void visitAnonFunctionExpr(Expr.AnonFunction expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitInlinedExpr(Expr.Inlined expr) {
+            scan(expr.getCall());
+            scan(expr.getBody());
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            scanAll(stmt.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            scan(stmt.getSuperclass());
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            scan(stmt.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.getCondition());
+            scan(stmt.getThenbranch());
+            scan(stmt.getElsebranch());
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            scan(stmt.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            scan(stmt.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            scan(stmt.getInitializer());
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            scan(stmt.getCondition());
+            scan(stmt.getBody());
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            scan(stmt.getInitializer());
+            scan(stmt.getCondition());
+            scan(stmt.getBody());
+            scan(stmt.getIncrement());
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            return null;
+        }
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        code.goTo(loopExits.peek());
+        return null;
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void load(Token name, Storage storage, int slot) {
+        switch (storage) {
+            case LOCAL -> code.aload(local(slot));
+            case BOXED, UPVALUE -> {
+                upvalue(storage, slot);
+                code.invokevirtual(UPVALUE, "get", "()" + OBJECT_TYPE);
+            }
+            default -> {
+                constant(globals, "org/jlox/Globals");
+                code.iconst(slot);
+                constant(name, "org/jlox/Token");
+                code.invokestatic(RUNTIME, "getGlobal", "(Lorg/jlox/Globals;I" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+            }
+        }
+    }
+
+    // Pushes the Upvalue in a boxed slot of the frame, or one of the function's own.
+    private void upvalue(Storage storage, int slot) {
+        if (storage == Storage.BOXED) {
+            code.aload(local(slot));
+            code.checkcast(UPVALUE);
+        } else {
+            code.aload(UPVALUES);
+            code.iconst(slot);
+            code.aaload();
+        }
+    }
+
+    /**
+     * Creates a variable holding nil, as the interpreter's declaration does; a boxed one gets a
+     * new Upvalue.
+     */
+    private void declare(Storage storage, int slot) {
+        if (storage == Storage.BOXED) {
+            code.anew(UPVALUE);
+            code.dup();
+            code.aconstNull();
+            code.invokespecial(UPVALUE, "<init>", "(" + OBJECT_TYPE + ")V");
+            code.astore(local(slot));
+        } else {
+            store(storage, slot, code::aconstNull);
+        }
+    }
+
+    /**
+     * Sets a variable being declared to the value the emitter pushes, inside its Upvalue if it
+     * is boxed.
+     */
+    private void store(Storage storage, int slot, Runnable value) {
+        switch (storage) {
+            case LOCAL -> {
+                value.run();
+                code.astore(local(slot));
+            }
+            case BOXED -> {
+                upvalue(storage, slot);
+                value.run();
+                code.invokevirtual(UPVALUE, "set", "(" + OBJECT_TYPE + ")V");
+            }
+            default -> {
+                constant(globals, "org/jlox/Globals");
+                code.iconst(slot);
+                value.run();
+                code.invokestatic(RUNTIME, "defineGlobal", "(Lorg/jlox/Globals;I" + OBJECT_TYPE + ")V");
+            }
+        }
+    }
+
+    private int local(int slot) {
+        return frame + slot;
+    }
+
+    // Every slot starts out nil, which also keeps the verifier from seeing an unassigned local.
+    private void beginScope(int slots) {
+        frame = nextLocal;
+        nextLocal += slots;
+        for (int i = 0; i < slots; i++) {
+            code.aconstNull();
+            code.astore(frame + i);
+        }
+    }
+
+    private void endScope() {
+        nextLocal = frame;
+        frame = -1;
+    }
+
+    private void constant(Object value, String internalType) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        code.aload(0);
+        code.getfield(className, "constants", "[" + OBJECT_TYPE);
+        code.iconst(index);
+        code.aaload();
+        if (!internalType.equals(OBJECT)) {
+            code.checkcast(internalType);
+        }
+    }
+}
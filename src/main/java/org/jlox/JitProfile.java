@@ -0,0 +1,32 @@
+package org.jlox;
+
+/**
+ * Hotness counter for one function declaration. Calls and loop back-edges in the function's
+ * body both count towards the threshold; once it is crossed the function is compiled once,
+ * and a function that can't be compiled is never tried again.
+ */
+public class JitProfile {
+    private int count = 0;
+    private JitCode code;
+    private boolean failed = false;
+
+    void tick() {
+        count++;
+    }
+
+    boolean shouldCompile(int threshold) {
+        return code == null && !failed && count >= threshold;
+    }
+
+    JitCode getCode() {
+        return code;
+    }
+
+    void setCode(JitCode code) {
+        this.code = code;
+    }
+
+    void markFailed() {
+        failed = true;
+    }
+}
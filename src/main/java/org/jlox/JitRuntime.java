@@ -0,0 +1,327 @@
+package org.jlox;
+
+import org.jlox.exception.RuntimeError;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry points called from JIT-compiled code. Generated classes live in their own class loader
+ * (or, ahead of time, their own package) and so can only reach public members; these helpers
+ * forward to the interpreter's semantics. Each operation tries the number fast path first and
+ * otherwise falls back to the generic rules, so a type that changes under compiled code is
+ * handled exactly as the interpreter would.
+ */
+public final class JitRuntime {
+    // Shared by every closure that captures nothing.
+    public static final Upvalue[] NO_UPVALUES = Environment.NO_UPVALUES;
+
+    private JitRuntime() {
+    }
+
+    public static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    public static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    public static Object negate(Object value, Token operator) {
+        if (!(value instanceof Double)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+        return -(double) value;
+    }
+
+    public static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        return Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static Object subtract(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left - (double) right;
+        }
+        return Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static Object multiply(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left * (double) right;
+        }
+        return Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static Object divide(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double && (double) right != 0.0) {
+            return (double) left / (double) right;
+        }
+        return Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isLess(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left < (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isLessEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left <= (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isGreater(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left > (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isGreaterEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left >= (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    // Comparisons against a counted loop's counter, which is known to be a number.
+
+    public static boolean isLess(double left, Object right, Token operator) {
+        if (right instanceof Double) {
+            return left < (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isLessEqual(double left, Object right, Token operator) {
+        if (right instanceof Double) {
+            return left <= (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isGreater(double left, Object right, Token operator) {
+        if (right instanceof Double) {
+            return left > (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isGreaterEqual(double left, Object right, Token operator) {
+        if (right instanceof Double) {
+            return left >= (double) right;
+        }
+        return (Boolean) Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static boolean isEqual(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    public static Object box(boolean value) {
+        return value;
+    }
+
+    public static Object binary(Object left, Object right, Token operator) {
+        return Interpreter.binaryGeneric(operator, left, right);
+    }
+
+    public static Object getGlobal(Globals globals, int slot, Token name) {
+        return globals.get(slot, name);
+    }
+
+    public static Object assignGlobal(Globals globals, int slot, Token name, Object value) {
+        globals.assign(slot, name, value);
+        return value;
+    }
+
+    public static void defineGlobal(Globals globals, int slot, Object value) {
+        globals.define(slot, value);
+    }
+
+    public static LoxFunction function(Object declaration, Upvalue[] upvalues) {
+        return new LoxFunction((Stmt.Function) declaration, upvalues, FunctionType.FUNCTION);
+    }
+
+    public static LoxFunction method(Object declaration, Upvalue[] upvalues) {
+        Stmt.Function method = (Stmt.Function) declaration;
+        FunctionType type = method.getName().getLexeme().equals("init")
+                ? FunctionType.INITIALIZER
+                : FunctionType.METHOD;
+        return new LoxFunction(method, upvalues, type);
+    }
+
+    public static boolean isDeclaredBy(Globals globals, int slot, Token function) {
+        return Interpreter.isDeclaredBy(globals.get(slot), function);
+    }
+
+    public static Object checkSuperclass(Object superclass, Token name) {
+        if (!(superclass instanceof LoxClass)) {
+            throw new RuntimeError(name, "Superclass must be a class.");
+        }
+        return superclass;
+    }
+
+    /**
+     * Builds a class from methods and static methods already closed over their frames.
+     */
+    public static Object createClass(String name,
+                                     Object superclass,
+                                     LoxFunction[] methods,
+                                     LoxFunction[] staticMethods) {
+        Map<String, LoxFunction> methodTable = new HashMap<>();
+        for (LoxFunction method : methods) {
+            methodTable.put(method.getName(), method);
+        }
+
+        Map<String, LoxFunction> staticTable = new HashMap<>();
+        for (LoxFunction method : staticMethods) {
+            staticTable.put(method.getName(), method);
+        }
+
+        return new LoxClass(name, (LoxClass) superclass, methodTable, staticTable);
+    }
+
+    public static LoxFunction findSuperMethod(Object superclass, Token method) {
+        LoxFunction found = ((LoxClass) superclass).findMethod(method.getLexeme());
+        if (found == null) {
+            throw new RuntimeError(method, "Undefined property '" + method.getLexeme() + "'.");
+        }
+        return found;
+    }
+
+    public static Object bind(LoxFunction method, Object receiver) {
+        return method.bind((LoxInstance) receiver);
+    }
+
+    public static Object getProperty(Object object, PropertyCache cache, Token name) {
+        if (object instanceof LoxInstance) {
+            return cache.get((LoxInstance) object, name);
+        }
+        if (object instanceof LoxClass) {
+            return cache.getStatic((LoxClass) object, name);
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    public static Object checkInstance(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return object;
+    }
+
+    public static Object setProperty(Object object, PropertyCache cache, Token name, Object value) {
+        cache.set((LoxInstance) object, name, value);
+        return value;
+    }
+
+    /**
+     * The method a call on this property invokes directly with the receiver, or null when the
+     * call has to read the property and call its value.
+     */
+    public static LoxFunction findMethod(Object object, UniqueMethod target, PropertyCache cache, Token name) {
+        if (object instanceof LoxInstance) {
+            return UniqueMethod.findMethod(target, cache, (LoxInstance) object, name);
+        }
+        return null;
+    }
+
+    public static Object invoke(Interpreter interpreter,
+                                LoxFunction method,
+                                Object receiver,
+                                Object[] arguments,
+                                Token paren) {
+        checkArity(method, arguments, paren);
+        return method.call(interpreter, (LoxInstance) receiver, Arrays.asList(arguments));
+    }
+
+    /**
+     * {@link #invoke} for a call in tail position, which the calling function's trampoline makes.
+     */
+    public static Object tailInvoke(Interpreter interpreter,
+                                    LoxFunction method,
+                                    Object receiver,
+                                    Object[] arguments,
+                                    Token paren) {
+        checkArity(method, arguments, paren);
+        return new TailCall(method, (LoxInstance) receiver, Arrays.asList(arguments));
+    }
+
+    public static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        return checkCallable(callee, arguments, paren).call(interpreter, Arrays.asList(arguments));
+    }
+
+    /**
+     * {@link #call} for a call in tail position. Only Lox functions go through the trampoline;
+     * classes and native functions are called right away.
+     */
+    public static Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        LoxCallable function = checkCallable(callee, arguments, paren);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).tailCall(Arrays.asList(arguments));
+        }
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    private static LoxCallable checkCallable(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        checkArity(function, arguments, paren);
+        return function;
+    }
+
+    private static void checkArity(LoxCallable function, Object[] arguments, Token paren) {
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(
+                    paren,
+                    "Expected " + function.arity() + " arguments but got "
+                            + arguments.length + ".");
+        }
+    }
+
+    public static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    public static Interpreter newInterpreter() {
+        return new Interpreter();
+    }
+
+    public static Token token(String type, String lexeme, int line) {
+        return new Token(TokenType.valueOf(type), lexeme, null, line);
+    }
+
+    /**
+     * A stand-in for a function declaration compiled ahead of time: it carries what
+     * {@link LoxFunction} reports about the function and the compiled body, but no statements.
+     */
+    public static Object declaration(Token name, int arity, JitCode code) {
+        Stmt.Function declaration = new Stmt.Function(name, Collections.nCopies(arity, name), List.of());
+        declaration.getProfile().setCode(code);
+        return declaration;
+    }
+
+    /**
+     * Runs a script compiled ahead of time, reporting a runtime error the way jlox does.
+     */
+    public static void runScript(JitCode script) {
+        try {
+            script.call(NO_UPVALUES, null, List.of());
+        } catch (RuntimeError error) {
+            System.err.println(error.getMessage() + "\n[line " + error.getToken().getLine() + "]");
+            System.exit(70);
+        }
+    }
+}
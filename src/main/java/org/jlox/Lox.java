@@ -1,6 +1,8 @@
 package org.jlox;
 
 import org.jlox.exception.RuntimeError;
+import org.jlox.vm.VM;
+import org.jlox.vm.VmFunction;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -8,28 +10,100 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
+    private static Interpreter interpreter;
+    private static final VM vm = new VM();
+    private static ClosureCompiler closureCompiler;
+    // Calls plus loop back-edges a function needs before the JIT tier compiles it.
+    private static final int JIT_THRESHOLD = 1000;
+    private static Engine engine = Engine.TREE;
+    private static boolean printCacheStats = false;
+    private static int optimizationLevel = 1;
+    private static boolean printOptimizerStats = false;
+    private static Optimizer optimizer;
     private static boolean hasError = false;
     private static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = parseEngine(arg.substring("--engine=".length()));
+            } else if (arg.equals("--ic-stats")) {
+                printCacheStats = true;
+            } else if (arg.matches("-O[0-2]")) {
+                optimizationLevel = arg.charAt(2) - '0';
+            } else if (arg.equals("--opt-stats")) {
+                printOptimizerStats = true;
+            } else {
+                arguments.add(arg);
+            }
+        }
+
+        interpreter = engine == Engine.SWITCH ? new SwitchInterpreter() : new Interpreter();
+        closureCompiler = new ClosureCompiler(interpreter.getGlobals());
+        optimizer = new Optimizer(optimizationLevel);
+        if (engine == Engine.JIT) {
+            interpreter.enableJit(Integer.getInteger("jlox.jit.threshold", JIT_THRESHOLD));
+        }
+
+        if (engine != null && !arguments.isEmpty() && arguments.get(0).equals("compile")) {
+            compileFile(arguments.subList(1, arguments.size()));
+        } else if (engine == null || arguments.size() > 1) {
+            usage();
+        } else if (arguments.size() == 1) {
+            runFile(arguments.get(0));
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|switch|vm|closure|jit] [-O0|-O1|-O2] [--ic-stats] [--opt-stats] [script]");
+        System.out.println("       jlox [-O0|-O1|-O2] compile script [-o app.jar]");
+        System.exit(64);
+    }
+
+    private static void compileFile(List<String> arguments) throws IOException {
+        String output;
+        if (arguments.size() == 1) {
+            output = arguments.get(0).replaceFirst("\\.lox$", "") + ".jar";
+        } else if (arguments.size() == 3 && arguments.get(1).equals("-o")) {
+            output = arguments.get(2);
+        } else {
+            usage();
+            return;
+        }
+
+        byte[] bytes = Files.readAllBytes(Paths.get(arguments.get(0)));
+        List<Stmt> statements = parse(new String(bytes, Charset.defaultCharset()));
+        if (printOptimizerStats) {
+            optimizer.printStats();
+        }
+        if (hasError) {
+            System.exit(65);
+        }
+
+        try {
+            new AotCompiler(interpreter).compile(printExpression(statements), Paths.get(output));
+        } catch (IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(65);
+        }
+    }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+        if (printCacheStats) {
+            printCacheStats();
+        }
+        if (printOptimizerStats) {
+            optimizer.printStats();
+        }
         if (hasError) {
             System.exit(65);
         }
@@ -51,31 +125,96 @@ public class Lox {
             run(line);
             hasError = false;
         }
+        if (printCacheStats) {
+            printCacheStats();
+        }
+        if (printOptimizerStats) {
+            optimizer.printStats();
+        }
     }
 
     private static void run(String source) {
+        List<Stmt> statements = parse(source);
+
+        if (hasError) {
+            return;
+        }
+
+        if (engine == Engine.VM) {
+            runVm(statements);
+            return;
+        }
+        if (engine == Engine.CLOSURE) {
+            closureCompiler.run(printExpression(statements));
+            return;
+        }
+
+        if (statements.size() == 1 && statements.get(0) instanceof Stmt.Expression) {
+            Object value = interpreter.evaluateExpression(((Stmt.Expression) statements.get(0)));
+            System.out.println(Interpreter.stringify(value));
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
+    // Scans, parses, resolves and optimizes the source; the caller checks hasError.
+    private static List<Stmt> parse(String source) {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
 
         if (hasError) {
-            return;
+            return statements;
         }
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(interpreter.getGlobals());
         resolver.resolve(statements);
 
+        if (hasError) {
+            return statements;
+        }
+        return optimizer.optimize(statements);
+    }
+
+    private static void runVm(List<Stmt> statements) {
+        VmFunction script = new BytecodeCompiler(vm.getGlobals()).compile(printExpression(statements));
+
         if (hasError) {
             return;
         }
 
+        try {
+            vm.interpret(script);
+        } catch (RuntimeError error) {
+            runtimeError(error);
+        }
+    }
+
+    // Like the tree-walker's REPL, a lone expression statement prints its value.
+    private static List<Stmt> printExpression(List<Stmt> statements) {
         if (statements.size() == 1 && statements.get(0) instanceof Stmt.Expression) {
-            Object value = interpreter.evaluateExpression(((Stmt.Expression) statements.get(0)));
-            System.out.println(interpreter.stringify(value));
-        } else {
-            interpreter.interpret(statements);
+            Expr expression = ((Stmt.Expression) statements.get(0)).getExpression();
+            return List.of(new Stmt.Print(expression));
+        }
+        return statements;
+    }
+
+    private static void printCacheStats() {
+        System.err.println(
+                "[inline caches] hits: " + PropertyCache.getHits()
+                        + ", misses: " + PropertyCache.getMisses()
+                        + ", megamorphic lookups: " + PropertyCache.getMegamorphicLookups()
+        );
+    }
+
+    private static Engine parseEngine(String name) {
+        for (Engine candidate : Engine.values()) {
+            if (candidate.name().equalsIgnoreCase(name)) {
+                return candidate;
+            }
         }
+        return null;
     }
 
     static void error(int line, String message) {
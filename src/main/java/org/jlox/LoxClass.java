@@ -2,6 +2,7 @@ package org.jlox;
 
 import org.jlox.exception.RuntimeError;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,6 +11,9 @@ public class LoxClass implements LoxCallable {
     private final LoxClass superclass;
     private final Map<String, LoxFunction> methods;
     private final Map<String, LoxFunction> staticMethods;
+    private final LoxFunction initializer;
+    private final int arity;
+    private final Shape rootShape = new Shape();
 
     public LoxClass(String name,
                     LoxClass superclass,
@@ -17,30 +21,29 @@ public class LoxClass implements LoxCallable {
                     Map<String, LoxFunction> staticMethods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
-        this.staticMethods = staticMethods;
+        // Inherited methods are copied in once so lookups never walk the superclass chain.
+        this.methods = flatten(superclass == null ? null : superclass.methods, methods);
+        this.staticMethods = flatten(superclass == null ? null : superclass.staticMethods, staticMethods);
+        this.initializer = this.methods.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
-    public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
+    private static Map<String, LoxFunction> flatten(Map<String, LoxFunction> inherited,
+                                                    Map<String, LoxFunction> own) {
+        Map<String, LoxFunction> table = new HashMap<>();
+        if (inherited != null) {
+            table.putAll(inherited);
         }
+        table.putAll(own);
+        return Map.copyOf(table);
+    }
 
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-        return null;
+    public LoxFunction findMethod(String name) {
+        return methods.get(name);
     }
 
     public LoxFunction findStaticMethod(String name) {
-        if (staticMethods.containsKey(name)) {
-            return staticMethods.get(name);
-        }
-
-        if (superclass != null) {
-            return superclass.findStaticMethod(name);
-        }
-        return null;
+        return staticMethods.get(name);
     }
 
     public Object getStatic(Token name) {
@@ -58,19 +61,14 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) {
-            return 0;
-        }
-        return initializer.arity();
+        return arity;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.call(interpreter, instance, arguments);
         }
         return instance;
     }
@@ -82,4 +80,8 @@ public class LoxClass implements LoxCallable {
     public LoxClass getSuperclass() {
         return superclass;
     }
+
+    public Shape getRootShape() {
+        return rootShape;
+    }
 }
@@ -1,18 +1,27 @@
 package org.jlox;
 
-import org.jlox.exception.Return;
-
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    // The variables of enclosing functions that the body uses, and nothing else of theirs.
+    private final Upvalue[] upvalues;
+    private final FunctionType type;
+    // Set only on methods bound for use as first-class values.
+    private final LoxInstance receiver;
+    // A body without locals never writes to its frame, so every call can share one.
+    private final Environment emptyFrame;
+
+    LoxFunction(Stmt.Function declaration, Upvalue[] upvalues, FunctionType type) {
+        this(declaration, upvalues, type, null);
+    }
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
-        this.isInitializer = isInitializer;
-        this.closure = closure;
+    LoxFunction(Stmt.Function declaration, Upvalue[] upvalues, FunctionType type, LoxInstance receiver) {
         this.declaration = declaration;
+        this.upvalues = upvalues;
+        this.type = type;
+        this.receiver = receiver;
+        this.emptyFrame = declaration.getSlots() == 0 ? new Environment(0, upvalues) : null;
     }
 
     @Override
@@ -22,25 +31,54 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        return call(interpreter, receiver, arguments);
+    }
 
-        for (int i = 0; i < declaration.getParams().size(); i++) {
-            environment.define(declaration.getParams().get(i).getLexeme(), arguments.get(i));
-        }
-        try {
-            interpreter.executeBlock(declaration.getBody(), environment);
-        } catch (Return returnValue) {
-            if (isInitializer) {
-                return closure.getAt(0, "this");
+    /**
+     * Calls the function with an explicit receiver. Methods keep 'this' in slot zero of their
+     * own environment, so invoking one directly on an instance needs no bound copy.
+     */
+    Object call(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        // The trampoline: a body that ends in a tail call hands it back as a TailCall, and the
+        // loop makes it here. The body runs inline rather than in a method of its own so that
+        // ordinary recursion costs no extra Java frame per call.
+        LoxFunction function = this;
+        for (;;) {
+            Object result;
+            JitCode compiled = interpreter.compiledCode(function.declaration, function.type);
+            if (compiled != null) {
+                result = compiled.call(function.upvalues, receiver, arguments);
+            } else {
+                Environment environment = function.emptyFrame != null
+                        ? function.emptyFrame
+                        : new Environment(function.declaration.getSlots(), function.upvalues);
+
+                int firstParam = 0;
+                if (function.type != FunctionType.FUNCTION) {
+                    environment.define(0, receiver);
+                    firstParam = 1;
+                }
+                for (int i = 0; i < arguments.size(); i++) {
+                    environment.define(firstParam + i, arguments.get(i));
+                }
+                environment.box(function.declaration.getBoxedparams());
+                Completion completion = interpreter.executeFunctionBody(function.declaration, environment);
+
+                if (function.type == FunctionType.INITIALIZER) {
+                    interpreter.takeReturnValue();
+                    return receiver;
+                }
+                result = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
             }
-            return returnValue.getValue();
-        }
 
-        if (isInitializer) {
-            return closure.getAt(0, "this");
+            if (!(result instanceof TailCall)) {
+                return result;
+            }
+            TailCall next = (TailCall) result;
+            function = next.getFunction();
+            receiver = next.getReceiver();
+            arguments = next.getArguments();
         }
-
-        return null;
     }
 
     @Override
@@ -48,13 +86,23 @@ public class LoxFunction implements LoxCallable {
         return "<fn " + declaration.getName().getLexeme() + ">";
     }
 
+    TailCall tailCall(List<Object> arguments) {
+        return new TailCall(this, receiver, arguments);
+    }
+
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, type, instance);
+    }
+
+    String getName() {
+        return declaration.getName().getLexeme();
+    }
+
+    Stmt.Function getDeclaration() {
+        return declaration;
     }
 
-    public Environment getClosure() {
-        return closure;
+    public Upvalue[] getUpvalues() {
+        return upvalues;
     }
 }
@@ -2,20 +2,24 @@ package org.jlox;
 
 import org.jlox.exception.RuntimeError;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private final LoxClass clazz;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     public LoxInstance(LoxClass clazz) {
         this.clazz = clazz;
+        this.shape = clazz.getRootShape();
     }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.getLexeme())) {
-            return fields.get(name.getLexeme());
+        int index = shape.indexOf(name.getLexeme());
+        if (index >= 0) {
+            return fields[index];
         }
 
         LoxFunction method = clazz.findMethod(name.getLexeme());
@@ -26,7 +30,37 @@ public class LoxInstance {
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.getLexeme(), value);
+        int index = shape.indexOf(name.getLexeme());
+        if (index < 0) {
+            addField(shape.withField(name.getLexeme()), value);
+            return;
+        }
+        fields[index] = value;
+    }
+
+    Shape getShape() {
+        return shape;
+    }
+
+    LoxClass getClazz() {
+        return clazz;
+    }
+
+    Object getField(int index) {
+        return fields[index];
+    }
+
+    void setField(int index, Object value) {
+        fields[index] = value;
+    }
+
+    void addField(Shape next, Object value) {
+        shape = next;
+        int index = next.size() - 1;
+        if (index == fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        fields[index] = value;
     }
 
     @Override
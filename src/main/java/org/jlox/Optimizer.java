@@ -0,0 +1,79 @@
+package org.jlox;
+
+import java.util.List;
+
+/**
+ * Runs the optimization passes over a resolved program before any engine sees it. At -O0 the
+ * program is left as written, and -O1 runs constant folding and then dead code elimination
+ * once. -O2 adds inlining of small global functions and repeats all three until a round
+ * rewrites nothing, since each can expose work for the others. At both levels the class
+ * hierarchy analysis then runs once over the final tree to devirtualize method calls. Every pass
+ * keeps a running total of the time it took and the rewrites it made.
+ */
+class Optimizer {
+    // Bounds -O2's rounds; real programs settle after two or three.
+    private static final int MAX_ROUNDS = 10;
+
+    private final int level;
+    // The rewriting passes, repeated in rounds, followed by the analysis that runs once.
+    private final List<AstRewriter> passes;
+    private final long[] nanos;
+    private final long[] rewrites;
+
+    Optimizer(int level) {
+        this.level = level;
+        if (level < 2) {
+            passes = List.of(new ConstantFolder(), new DeadCodeEliminator(), new ClassHierarchy());
+        } else {
+            passes = List.of(new ConstantFolder(), new DeadCodeEliminator(), new Inliner(), new ClassHierarchy());
+        }
+        nanos = new long[passes.size()];
+        rewrites = new long[passes.size()];
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        if (level == 0) {
+            return statements;
+        }
+        int rounds = level == 1 ? 1 : MAX_ROUNDS;
+        int last = passes.size() - 1;
+        for (int round = 0; round < rounds; round++) {
+            long before = totalRewrites(last);
+            for (int i = 0; i < last; i++) {
+                statements = run(i, statements);
+            }
+            if (totalRewrites(last) == before) {
+                break;
+            }
+        }
+        return run(last, statements);
+    }
+
+    private List<Stmt> run(int pass, List<Stmt> statements) {
+        long start = System.nanoTime();
+        List<Stmt> result = passes.get(pass).run(statements);
+        nanos[pass] += System.nanoTime() - start;
+        rewrites[pass] += passes.get(pass).takeRewrites();
+        return result;
+    }
+
+    private long totalRewrites(int passCount) {
+        long total = 0;
+        for (int i = 0; i < passCount; i++) {
+            total += rewrites[i];
+        }
+        return total;
+    }
+
+    void printStats() {
+        for (int i = 0; i < passes.size(); i++) {
+            System.err.printf(
+                    "[optimizer -O%d] %s: %d rewrites in %.3f ms%n",
+                    level,
+                    passes.get(i).getName(),
+                    rewrites[i],
+                    nanos[i] / 1_000_000.0
+            );
+        }
+    }
+}
@@ -3,7 +3,6 @@ package org.jlox;
 import org.jlox.exception.ParseError;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
@@ -146,7 +145,6 @@ public class Parser {
     }
 
     private Stmt forStatement() {
-        // Desugaring to WHILE-statement
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) {
@@ -173,26 +171,11 @@ public class Parser {
         Stmt body = statement();
         loopDepth--;
 
-        if (increment != null) {
-            body = new Stmt.Block(
-                    Arrays.asList(
-                            body,
-                            new Stmt.Expression(increment)
-                    )
-            );
-        }
-
         if (condition == null) {
             condition = new Expr.Literal(true);
         }
 
-        body = new Stmt.While(condition, body);
-
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt whileStatement() {
@@ -477,9 +460,10 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
         consume(TokenType.LEFT_BRACE, "Expect '{' before function body");
 
+        Token name = new Token(TokenType.IDENTIFIER, "<anon>", null, previous().getLine());
         List<Stmt> body = block();
 
-        return new Expr.AnonFunction(parameters, body);
+        return new Expr.AnonFunction(new Stmt.Function(name, parameters, body));
     }
 
     private Token consume(TokenType type,  String message) {
@@ -0,0 +1,151 @@
+package org.jlox;
+
+import org.jlox.exception.RuntimeError;
+
+/**
+ * Inline cache for a single property get or set site. Entries are keyed by the receiver's
+ * Shape (or by the class itself for static methods). A site that has seen more than
+ * {@link #POLYMORPHIC_LIMIT} receiver layouts goes megamorphic and stops caching.
+ */
+public class PropertyCache {
+    private static final int POLYMORPHIC_LIMIT = 4;
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long megamorphicLookups = 0;
+
+    private final Object[] keys = new Object[POLYMORPHIC_LIMIT];
+    private final int[] indices = new int[POLYMORPHIC_LIMIT];
+    // The method for a get site, or the shape after the transition for a set site that adds a field.
+    private final Object[] targets = new Object[POLYMORPHIC_LIMIT];
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    Object get(LoxInstance instance, Token name) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == shape) {
+                hits++;
+                int index = indices[i];
+                return index >= 0 ? instance.getField(index) : ((LoxFunction) targets[i]).bind(instance);
+            }
+        }
+        countMiss();
+
+        int index = shape.indexOf(name.getLexeme());
+        if (index >= 0) {
+            add(shape, index, null);
+            return instance.getField(index);
+        }
+
+        LoxFunction method = instance.getClazz().findMethod(name.getLexeme());
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
+        }
+        add(shape, -1, method);
+        return method.bind(instance);
+    }
+
+    /**
+     * Returns the method a call site on this property would invoke, or null when the property
+     * is a field or missing and the call has to go through {@link #get}. The method is not bound.
+     */
+    LoxFunction findMethod(LoxInstance instance, Token name) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == shape) {
+                hits++;
+                return (LoxFunction) targets[i];
+            }
+        }
+        countMiss();
+
+        int index = shape.indexOf(name.getLexeme());
+        if (index >= 0) {
+            add(shape, index, null);
+            return null;
+        }
+
+        LoxFunction method = instance.getClazz().findMethod(name.getLexeme());
+        if (method != null) {
+            add(shape, -1, method);
+        }
+        return method;
+    }
+
+    Object getStatic(LoxClass clazz, Token name) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == clazz) {
+                hits++;
+                return targets[i];
+            }
+        }
+        countMiss();
+
+        Object method = clazz.getStatic(name);
+        add(clazz, -1, method);
+        return method;
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == shape) {
+                hits++;
+                if (targets[i] == null) {
+                    instance.setField(indices[i], value);
+                } else {
+                    instance.addField((Shape) targets[i], value);
+                }
+                return;
+            }
+        }
+        countMiss();
+
+        int index = shape.indexOf(name.getLexeme());
+        if (index >= 0) {
+            add(shape, index, null);
+            instance.setField(index, value);
+            return;
+        }
+
+        Shape next = shape.withField(name.getLexeme());
+        add(shape, next.size() - 1, next);
+        instance.addField(next, value);
+    }
+
+    private void countMiss() {
+        if (megamorphic) {
+            megamorphicLookups++;
+        } else {
+            misses++;
+        }
+    }
+
+    private void add(Object key, int index, Object target) {
+        if (megamorphic) {
+            return;
+        }
+        if (size == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            size = 0;
+            return;
+        }
+        keys[size] = key;
+        indices[size] = index;
+        targets[size] = target;
+        size++;
+    }
+
+    public static long getHits() {
+        return hits;
+    }
+
+    public static long getMisses() {
+        return misses;
+    }
+
+    public static long getMegamorphicLookups() {
+        return megamorphicLookups;
+    }
+}
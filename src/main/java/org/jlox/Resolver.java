@@ -1,26 +1,32 @@
 package org.jlox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, VarState>> scopes = new Stack<>();
+    private final Globals globals;
+    private final Stack<Scope> scopes = new Stack<>();
+    // Local references are bound once the outermost scope closes and every slot is known.
+    private final List<Runnable> bindings = new ArrayList<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
     private int loopDepth = 0;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(Globals globals) {
+        this.globals = globals;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        beginScope(ScopeType.BLOCK);
         resolve(stmt.getStatements());
-        endScope();
+        stmt.setSlots(endScope());
         return null;
     }
 
@@ -29,7 +35,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.getName());
+        VarState classState = declare(stmt.getName());
+        if (classState != null) {
+            bind(classState, stmt::setStorage, stmt::setSlot);
+        } else {
+            stmt.setSlot(globals.slotFor(stmt.getName().getLexeme()));
+        }
         define(stmt.getName());
 
         if (stmt.getSuperclass() != null
@@ -43,18 +54,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         if (stmt.getSuperclass() != null) {
-            beginScope();
-            VarState superState = new VarState();
+            beginScope(ScopeType.CLASS);
+            VarState superState = new VarState(scopes.peek(), 0);
             superState.setDefined(true);
             superState.setUsed(false);
-            scopes.peek().put("super", superState);
+            scopes.peek().variables.put("super", superState);
+            // The superclass is always kept in an upvalue for the methods to capture.
+            bindings.add(() -> stmt.setSuperslot(superState.getSlot()));
         }
 
-        beginScope();
-        VarState state = new VarState();
-        state.setDefined(true);
-        state.setUsed(false);
-        scopes.peek().put("this", state);
         for (Stmt.Function method : stmt.getMethods()) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.getName().getLexeme().equals("init")) {
@@ -62,10 +70,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             resolveFunction(method, declaration);
         }
-        endScope();
 
         if (stmt.getSuperclass() != null) {
-            endScope();
+            stmt.setSlots(endScope());
         }
 
         for (Stmt.Function method : stmt.getStaticmethods()) {
@@ -79,7 +86,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.getName());
+        VarState state = declare(stmt.getName());
+        if (state != null) {
+            bind(state, stmt::setStorage, stmt::setSlot);
+        } else {
+            stmt.setSlot(globals.slotFor(stmt.getName().getLexeme()));
+        }
         if (stmt.getInitializer() != null) {
             resolve(stmt.getInitializer());
         }
@@ -90,25 +102,40 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty()) {
-            VarState state = scopes.peek().get(expr.getName().getLexeme());
+            VarState state = scopes.peek().variables.get(expr.getName().getLexeme());
             if (state != null && !state.isDefined()) {
                 Lox.error(expr.getName(), "Can't read local variable in its own initializer.");
             }
         }
-        resolveLocal(expr, expr.getName());
+        VarState state = resolveLocal(expr.getName());
+        if (state != null) {
+            bind(state, expr::setStorage, expr::setSlot);
+        } else {
+            expr.setSlot(globals.slotFor(expr.getName().getLexeme()));
+        }
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.getValue());
-        resolveLocal(expr, expr.getName());
+        VarState state = resolveLocal(expr.getName());
+        if (state != null) {
+            bind(state, expr::setStorage, expr::setSlot);
+        } else {
+            expr.setSlot(globals.slotFor(expr.getName().getLexeme()));
+        }
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.getName());
+        VarState state = declare(stmt.getName());
+        if (state != null) {
+            bind(state, stmt::setStorage, stmt::setSlot);
+        } else {
+            stmt.setSlot(globals.slotFor(stmt.getName().getLexeme()));
+        }
         define(stmt.getName());
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -170,7 +197,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Lox.error(expr.getKeyword(), "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.getKeyword());
+        VarState state = resolveLocal(expr.getKeyword());
+        if (state != null) {
+            bind(state, expr::setStorage, expr::setSlot);
+            // The method's receiver, which the super method is bound to.
+            Expr.This receiver = new Expr.This(new Token(TokenType.THIS, "this", null, expr.getKeyword().getLine()));
+            VarState receiverState = resolveLocal(receiver.getKeyword());
+            if (receiverState != null) {
+                bind(receiverState, receiver::setStorage, receiver::setSlot);
+                expr.setReceiver(receiver);
+            }
+        } else if (currentClass == ClassType.SUBCLASS) {
+            Lox.error(expr.getKeyword(), "Can't use 'super' in a static method.");
+        }
         return null;
     }
 
@@ -182,7 +221,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass == ClassType.CLASS && currentFunction != FunctionType.METHOD) {
             Lox.error(expr.getKeyword(), "Cannot use 'this' in static method.");
         }
-        resolveLocal(expr, expr.getKeyword());
+        VarState state = resolveLocal(expr.getKeyword());
+        if (state != null) {
+            bind(state, expr::setStorage, expr::setSlot);
+        } else {
+            expr.setSlot(globals.slotFor(expr.getKeyword().getLexeme()));
+        }
         return null;
     }
 
@@ -202,7 +246,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitAnonFunctionExpr(Expr.AnonFunction expr) {
-        resolveParamsAndBody(expr.getParams(), expr.getBody(), FunctionType.FUNCTION);
+        resolveFunction(expr.getDeclaration(), FunctionType.FUNCTION);
+        return null;
+    }
+
+    // Inlined calls are only created by the Optimizer, after resolution.
+    @Override
+    public Void visitInlinedExpr(Expr.Inlined expr) {
         return null;
     }
 
@@ -238,6 +288,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Lox.error(stmt.getKeyword(), "Can't return a value from an initializer.");
             }
             resolve(stmt.getValue());
+            // Nothing is left to do in the function after a returned call, parenthesized or not,
+            // so the caller can make it.
+            stmt.setTailcall(Interpreter.returnedCall(stmt.getValue()) != null);
         }
         return null;
     }
@@ -251,6 +304,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope(ScopeType.BLOCK);
+        if (stmt.getInitializer() != null) {
+            resolve(stmt.getInitializer());
+        }
+        resolve(stmt.getCondition());
+        loopDepth++;
+        resolve(stmt.getBody());
+        loopDepth--;
+        if (stmt.getIncrement() != null) {
+            resolve(stmt.getIncrement());
+        }
+        stmt.setSlots(endScope());
+        return null;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         if (loopDepth == 0) {
@@ -274,32 +344,61 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
-        resolveParamsAndBody(function.getParams(), function.getBody(), type);
-    }
-
-    private void resolveParamsAndBody(List<Token> params, List<Stmt> body, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
-        beginScope();
-        for (Token param : params) {
-            declare(param);
+        beginScope(ScopeType.FUNCTION);
+        Scope scope = scopes.peek();
+        List<VarState> parameters = new ArrayList<>();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // Methods receive 'this' in the first slot of their own scope.
+            VarState state = new VarState(scope, 0);
+            state.setDefined(true);
+            state.setUsed(false);
+            scope.variables.put("this", state);
+            parameters.add(state);
+        }
+        for (Token param : function.getParams()) {
+            parameters.add(declare(param));
             define(param);
         }
-        resolve(body);
-        endScope();
+        bindings.add(() -> {
+            function.setCaptures(captures(scope.frame));
+            function.setBoxedparams(parameters.stream()
+                    .filter(VarState::isCaptured)
+                    .mapToInt(VarState::getSlot)
+                    .toArray());
+        });
+        resolve(function.getBody());
+        function.setSlots(endScope());
 
         currentFunction = enclosingFunction;
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<>());
+    /**
+     * Opens a scope. Blocks, for loops and the scope holding a class's superclass don't get an
+     * environment: their variables take free slots in the frame of the function around them,
+     * or of the outermost such scope in top-level code.
+     */
+    private void beginScope(ScopeType type) {
+        Scope enclosing = scopes.isEmpty() ? null : scopes.peek();
+        Frame frame;
+        if (type == ScopeType.FUNCTION) {
+            frame = new Frame(enclosing == null ? null : enclosing.frame);
+        } else {
+            frame = enclosing == null ? new Frame(null) : enclosing.frame;
+        }
+        scopes.push(new Scope(type, frame));
     }
 
-    private void endScope() {
-        Map<String, VarState> scope = scopes.pop();
+    /**
+     * Closes the innermost scope. Returns the size of the frame it needs, or zero if it runs
+     * in the frame of an enclosing scope.
+     */
+    private int endScope() {
+        Scope scope = scopes.pop();
 
-        for (Map.Entry<String, VarState> entry : scope.entrySet()) {
+        for (Map.Entry<String, VarState> entry : scope.variables.entrySet()) {
             if (entry.getKey().equals("this") || entry.getKey().equals("super")) {
                 continue;
             }
@@ -308,48 +407,173 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Lox.error(-1, "Variable '" + entry.getKey() + "' is never used.");
             }
         }
+
+        int size = scope.variables.size() + scope.nested;
+        if (scope.type != ScopeType.FUNCTION && !scopes.isEmpty()) {
+            Scope enclosing = scopes.peek();
+            enclosing.merged.add(scope);
+            enclosing.nested = Math.max(enclosing.nested, size);
+            size = 0;
+        } else {
+            place(scope, 0);
+        }
+
+        if (scopes.isEmpty()) {
+            for (Runnable binding : bindings) {
+                binding.run();
+            }
+            bindings.clear();
+        }
+        return size;
     }
 
-    private void declare(Token name) {
+    // Sibling blocks are never live at the same time, so they share the slots after their parent's.
+    private static void place(Scope scope, int offset) {
+        scope.offset = offset;
+        for (Scope merged : scope.merged) {
+            place(merged, offset + scope.variables.size());
+        }
+    }
+
+    private VarState declare(Token name) {
         if (scopes.isEmpty()) {
-            return;
+            return null;
         }
 
-        Map<String, VarState> scope = scopes.peek();
+        Scope scope = scopes.peek();
 
-        if (scope.containsKey(name.getLexeme())) {
+        if (scope.variables.containsKey(name.getLexeme())) {
             Lox.error(name, "Already a variable with this name in this scope.");
         }
 
-        VarState state = new VarState();
+        VarState state = new VarState(scope, scope.variables.size());
         state.setDefined(false);
         state.setUsed(false);
-        scope.put(name.getLexeme(), state);
+        scope.variables.put(name.getLexeme(), state);
+        return state;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) {
             return;
         }
-        Map<String, VarState> scope = scopes.peek();
-        VarState state = scope.get(name.getLexeme());
+        VarState state = scopes.peek().variables.get(name.getLexeme());
         state.setDefined(true);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private VarState resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            Map<String, VarState> scope = scopes.get(i);
-            if (scope.containsKey(name.getLexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                scope.get(name.getLexeme()).setUsed(true);
-                return;
+            VarState state = scopes.get(i).variables.get(name.getLexeme());
+            if (state != null) {
+                state.setUsed(true);
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets where a declaration or reference in the current scope finds the variable, once
+     * every slot is known. A variable of an enclosing function is reached through an upvalue,
+     * which turns it into a boxed one in its own frame.
+     */
+    private void bind(VarState state, Consumer<Storage> storage, IntConsumer slot) {
+        Frame frame = scopes.peek().frame;
+        if (state.getScope().frame == frame) {
+            bindings.add(() -> {
+                storage.accept(state.isCaptured() ? Storage.BOXED : Storage.LOCAL);
+                slot.accept(state.getSlot());
+            });
+        } else {
+            int index = upvalue(frame, state);
+            bindings.add(() -> {
+                storage.accept(Storage.UPVALUE);
+                slot.accept(index);
+            });
+        }
+    }
+
+    // Threads the variable through the upvalues of every function between its frame and this one.
+    private static int upvalue(Frame frame, VarState state) {
+        Integer index = frame.indices.get(state);
+        if (index != null) {
+            return index;
+        }
+        if (frame.enclosing == state.getScope().frame) {
+            state.setCaptured(true);
+        } else {
+            upvalue(frame.enclosing, state);
+        }
+        frame.upvalues.add(state);
+        frame.indices.put(state, frame.upvalues.size() - 1);
+        return frame.upvalues.size() - 1;
+    }
+
+    private static List<Capture> captures(Frame frame) {
+        List<Capture> captures = new ArrayList<>();
+        for (VarState state : frame.upvalues) {
+            if (frame.enclosing == state.getScope().frame) {
+                captures.add(new Capture(true, state.getSlot()));
+            } else {
+                captures.add(new Capture(false, frame.enclosing.indices.get(state)));
             }
         }
+        return captures;
+    }
+
+    private enum ScopeType {
+        BLOCK,
+        FUNCTION,
+        CLASS
+    }
+
+    private static class Scope {
+        private final ScopeType type;
+        private final Frame frame;
+        private final Map<String, VarState> variables = new HashMap<>();
+        // Scopes folded into this one, and the most slots any of them needs.
+        private final List<Scope> merged = new ArrayList<>();
+        private int nested = 0;
+        // The first slot of the frame that holds this scope's variables.
+        private int offset = 0;
+
+        Scope(ScopeType type, Frame frame) {
+            this.type = type;
+            this.frame = frame;
+        }
+    }
+
+    // A function body, or a run of top-level code with locals: one runtime frame.
+    private static class Frame {
+        private final Frame enclosing;
+        // The variables of enclosing frames the function captures, in upvalue order.
+        private final List<VarState> upvalues = new ArrayList<>();
+        private final Map<VarState, Integer> indices = new IdentityHashMap<>();
+
+        Frame(Frame enclosing) {
+            this.enclosing = enclosing;
+        }
     }
 
     private static class VarState {
+        private final Scope scope;
+        private final int index;
         private boolean defined = false;
         private boolean used = false;
+        private boolean captured = false;
+
+        VarState(Scope scope, int index) {
+            this.scope = scope;
+            this.index = index;
+        }
+
+        public Scope getScope() {
+            return scope;
+        }
+
+        public int getSlot() {
+            return scope.offset + index;
+        }
 
         public boolean isUsed() {
             return used;
@@ -366,5 +590,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         public void setDefined(boolean defined) {
             this.defined = defined;
         }
+
+        public boolean isCaptured() {
+            return captured;
+        }
+
+        public void setCaptured(boolean captured) {
+            this.captured = captured;
+        }
     }
 }
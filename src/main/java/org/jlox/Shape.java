@@ -0,0 +1,48 @@
+package org.jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Layout of an instance's fields. Instances start from their class's root shape and move
+ * along shared transitions as fields are added, so objects built the same way end up with
+ * the same Shape and keep only their values in a plain array.
+ */
+public class Shape {
+    private final Map<String, Integer> indices;
+    private final Map<String, Shape> transitions = new HashMap<>();
+    private final int size;
+
+    public Shape() {
+        this.indices = Map.of();
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, String field) {
+        Map<String, Integer> indices = new HashMap<>(parent.indices);
+        indices.put(field, parent.size);
+        this.indices = indices;
+        this.size = parent.size + 1;
+    }
+
+    public int indexOf(String field) {
+        Integer index = indices.get(field);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    public Shape withField(String field) {
+        Shape next = transitions.get(field);
+        if (next == null) {
+            next = new Shape(this, field);
+            transitions.put(field, next);
+        }
+        return next;
+    }
+
+    public int size() {
+        return size;
+    }
+}
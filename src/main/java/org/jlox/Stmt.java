@@ -2,7 +2,7 @@ package org.jlox;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt {
 	interface Visitor<R> {
 		R visitBlockStmt(Block stmt);
 		R visitClassStmt(Class stmt);
@@ -13,13 +13,40 @@ abstract class Stmt {
 		R visitReturnStmt(Return stmt);
 		R visitVarStmt(Var stmt);
 		R visitWhileStmt(While stmt);
+		R visitForStmt(For stmt);
 		R visitBreakStmt(Break stmt);
 	}
 
-	public static class Block extends Stmt {
+	enum Kind {
+		BLOCK,
+		CLASS,
+		EXPRESSION,
+		FUNCTION,
+		IF,
+		PRINT,
+		RETURN,
+		VAR,
+		WHILE,
+		FOR,
+		BREAK
+	}
+
+	private final Kind kind;
+
+	private Stmt(Kind kind) {
+		this.kind = kind;
+	}
+
+	final Kind getKind() {
+		return kind;
+	}
+
+	public static final class Block extends Stmt {
 		private final List<Stmt> statements;
+		private int slots = 0;
 
 		Block(List<Stmt> statements) {
+			super(Kind.BLOCK);
 			this.statements = statements;
 		}
 
@@ -31,15 +58,28 @@ abstract class Stmt {
 		public List<Stmt> getStatements() {
 			return this.statements;
 		}
+
+		public int getSlots() {
+			return this.slots;
+		}
+
+		void setSlots(int slots) {
+			this.slots = slots;
+		}
 	}
 
-	public static class Class extends Stmt {
+	public static final class Class extends Stmt {
 		private final Token name;
 		private final Expr.Variable superclass;
 		private final List<Stmt.Function> methods;
 		private final List<Stmt.Function> staticMethods;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
+		private int superSlot = -1;
+		private int slots = 0;
 
 		Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> staticMethods) {
+			super(Kind.CLASS);
 			this.name = name;
 			this.superclass = superclass;
 			this.methods = methods;
@@ -66,12 +106,45 @@ abstract class Stmt {
 		public List<Stmt.Function> getStaticmethods() {
 			return this.staticMethods;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public int getSuperslot() {
+			return this.superSlot;
+		}
+
+		void setSuperslot(int superSlot) {
+			this.superSlot = superSlot;
+		}
+
+		public int getSlots() {
+			return this.slots;
+		}
+
+		void setSlots(int slots) {
+			this.slots = slots;
+		}
 	}
 
-	public static class Expression extends Stmt {
+	public static final class Expression extends Stmt {
 		private final Expr expression;
 
 		Expression(Expr expression) {
+			super(Kind.EXPRESSION);
 			this.expression = expression;
 		}
 
@@ -85,12 +158,19 @@ abstract class Stmt {
 		}
 	}
 
-	public static class Function extends Stmt {
+	public static final class Function extends Stmt {
 		private final Token name;
 		private final List<Token> params;
 		private final List<Stmt> body;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
+		private int slots = 0;
+		private List<Capture> captures = List.of();
+		private int[] boxedParams = new int[0];
+		private JitProfile profile = new JitProfile();
 
 		Function(Token name, List<Token> params, List<Stmt> body) {
+			super(Kind.FUNCTION);
 			this.name = name;
 			this.params = params;
 			this.body = body;
@@ -112,14 +192,63 @@ abstract class Stmt {
 		public List<Stmt> getBody() {
 			return this.body;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public int getSlots() {
+			return this.slots;
+		}
+
+		void setSlots(int slots) {
+			this.slots = slots;
+		}
+
+		public List<Capture> getCaptures() {
+			return this.captures;
+		}
+
+		void setCaptures(List<Capture> captures) {
+			this.captures = captures;
+		}
+
+		public int[] getBoxedparams() {
+			return this.boxedParams;
+		}
+
+		void setBoxedparams(int[] boxedParams) {
+			this.boxedParams = boxedParams;
+		}
+
+		public JitProfile getProfile() {
+			return this.profile;
+		}
+
+		void setProfile(JitProfile profile) {
+			this.profile = profile;
+		}
 	}
 
-	public static class If extends Stmt {
+	public static final class If extends Stmt {
 		private final Expr condition;
 		private final Stmt thenBranch;
 		private final Stmt elseBranch;
 
 		If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+			super(Kind.IF);
 			this.condition = condition;
 			this.thenBranch = thenBranch;
 			this.elseBranch = elseBranch;
@@ -143,10 +272,11 @@ abstract class Stmt {
 		}
 	}
 
-	public static class Print extends Stmt {
+	public static final class Print extends Stmt {
 		private final Expr expression;
 
 		Print(Expr expression) {
+			super(Kind.PRINT);
 			this.expression = expression;
 		}
 
@@ -160,11 +290,13 @@ abstract class Stmt {
 		}
 	}
 
-	public static class Return extends Stmt {
+	public static final class Return extends Stmt {
 		private final Token keyword;
 		private final Expr value;
+		private boolean tailCall = false;
 
 		Return(Token keyword, Expr value) {
+			super(Kind.RETURN);
 			this.keyword = keyword;
 			this.value = value;
 		}
@@ -181,13 +313,24 @@ abstract class Stmt {
 		public Expr getValue() {
 			return this.value;
 		}
+
+		public boolean getTailcall() {
+			return this.tailCall;
+		}
+
+		void setTailcall(boolean tailCall) {
+			this.tailCall = tailCall;
+		}
 	}
 
-	public static class Var extends Stmt {
+	public static final class Var extends Stmt {
 		private final Token name;
 		private final Expr initializer;
+		private Storage storage = Storage.GLOBAL;
+		private int slot = -1;
 
 		Var(Token name, Expr initializer) {
+			super(Kind.VAR);
 			this.name = name;
 			this.initializer = initializer;
 		}
@@ -204,13 +347,30 @@ abstract class Stmt {
 		public Expr getInitializer() {
 			return this.initializer;
 		}
+
+		public Storage getStorage() {
+			return this.storage;
+		}
+
+		void setStorage(Storage storage) {
+			this.storage = storage;
+		}
+
+		public int getSlot() {
+			return this.slot;
+		}
+
+		void setSlot(int slot) {
+			this.slot = slot;
+		}
 	}
 
-	public static class While extends Stmt {
+	public static final class While extends Stmt {
 		private final Expr condition;
 		private final Stmt body;
 
 		While(Expr condition, Stmt body) {
+			super(Kind.WHILE);
 			this.condition = condition;
 			this.body = body;
 		}
@@ -229,10 +389,56 @@ abstract class Stmt {
 		}
 	}
 
-	public static class Break extends Stmt {
+	public static final class For extends Stmt {
+		private final Stmt initializer;
+		private final Expr condition;
+		private final Expr increment;
+		private final Stmt body;
+		private int slots = 0;
+
+		For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+			super(Kind.FOR);
+			this.initializer = initializer;
+			this.condition = condition;
+			this.increment = increment;
+			this.body = body;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitForStmt(this);
+		}
+
+		public Stmt getInitializer() {
+			return this.initializer;
+		}
+
+		public Expr getCondition() {
+			return this.condition;
+		}
+
+		public Expr getIncrement() {
+			return this.increment;
+		}
+
+		public Stmt getBody() {
+			return this.body;
+		}
+
+		public int getSlots() {
+			return this.slots;
+		}
+
+		void setSlots(int slots) {
+			this.slots = slots;
+		}
+	}
+
+	public static final class Break extends Stmt {
 		private final Token keyword;
 
 		Break(Token keyword) {
+			super(Kind.BREAK);
 			this.keyword = keyword;
 		}
 
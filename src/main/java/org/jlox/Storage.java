@@ -0,0 +1,13 @@
+package org.jlox;
+
+/**
+ * Where the Resolver placed a variable. Locals live in slots of their function's frame; a local
+ * that some closure captures holds an {@link Upvalue} in its slot instead of the value, and the
+ * closure reaches it through its own upvalues.
+ */
+public enum Storage {
+    GLOBAL,
+    LOCAL,
+    BOXED,
+    UPVALUE
+}
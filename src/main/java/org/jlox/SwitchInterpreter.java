@@ -0,0 +1,47 @@
+package org.jlox;
+
+/**
+ * The tree-walker with its dispatch done by a switch over each node's kind instead of the
+ * visitor's double dispatch, where every node costs a megamorphic {@code accept} call and then
+ * an interface call to its visit method. The switch compiles to a table jump followed by a
+ * direct call. The evaluation itself is the tree-walker's own.
+ */
+class SwitchInterpreter extends Interpreter {
+    @Override
+    Completion execute(Stmt stmt) {
+        return switch (stmt.getKind()) {
+            case BLOCK -> visitBlockStmt((Stmt.Block) stmt);
+            case CLASS -> visitClassStmt((Stmt.Class) stmt);
+            case EXPRESSION -> visitExpressionStmt((Stmt.Expression) stmt);
+            case FUNCTION -> visitFunctionStmt((Stmt.Function) stmt);
+            case IF -> visitIfStmt((Stmt.If) stmt);
+            case PRINT -> visitPrintStmt((Stmt.Print) stmt);
+            case RETURN -> visitReturnStmt((Stmt.Return) stmt);
+            case VAR -> visitVarStmt((Stmt.Var) stmt);
+            case WHILE -> visitWhileStmt((Stmt.While) stmt);
+            case FOR -> visitForStmt((Stmt.For) stmt);
+            case BREAK -> visitBreakStmt((Stmt.Break) stmt);
+        };
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        return switch (expr.getKind()) {
+            case ASSIGN -> visitAssignExpr((Expr.Assign) expr);
+            case BINARY -> visitBinaryExpr((Expr.Binary) expr);
+            case CALL -> visitCallExpr((Expr.Call) expr);
+            case GET -> visitGetExpr((Expr.Get) expr);
+            case GROUPING -> visitGroupingExpr((Expr.Grouping) expr);
+            case LITERAL -> visitLiteralExpr((Expr.Literal) expr);
+            case LOGICAL -> visitLogicalExpr((Expr.Logical) expr);
+            case SET -> visitSetExpr((Expr.Set) expr);
+            case SUPER -> visitSuperExpr((Expr.Super) expr);
+            case THIS -> visitThisExpr((Expr.This) expr);
+            case UNARY -> visitUnaryExpr((Expr.Unary) expr);
+            case VARIABLE -> visitVariableExpr((Expr.Variable) expr);
+            case CONDITIONAL -> visitConditionalExpr((Expr.Conditional) expr);
+            case ANON_FUNCTION -> visitAnonFunctionExpr((Expr.AnonFunction) expr);
+            case INLINED -> visitInlinedExpr((Expr.Inlined) expr);
+        };
+    }
+}
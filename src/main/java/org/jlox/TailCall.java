@@ -0,0 +1,32 @@
+package org.jlox;
+
+import java.util.List;
+
+/**
+ * A call in tail position that the tree-walker hands back to the caller instead of making it.
+ * The function whose body returned it makes the call itself in a loop, so a chain of tail
+ * calls runs in one Java frame however long it gets.
+ */
+final class TailCall {
+    private final LoxFunction function;
+    private final LoxInstance receiver;
+    private final List<Object> arguments;
+
+    TailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+        this.function = function;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+
+    LoxFunction getFunction() {
+        return function;
+    }
+
+    LoxInstance getReceiver() {
+        return receiver;
+    }
+
+    List<Object> getArguments() {
+        return arguments;
+    }
+}
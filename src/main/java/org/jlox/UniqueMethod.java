@@ -0,0 +1,66 @@
+package org.jlox;
+
+/**
+ * A method name that, as far as the class hierarchy analysis has seen, only one method
+ * declaration in the program defines and no field ever shadows. Calls on such a name skip the
+ * inline cache: any instance either inherits that one method or has no property of the name at
+ * all, so the call only has to check that the receiver's class descends from the class that
+ * declared it. The assumption is dropped when later code declares the name again or assigns a
+ * field with it, and the call sites go back to their inline caches.
+ */
+public class UniqueMethod {
+    private final String name;
+    private boolean valid = true;
+    // The class the method was last found on and the method itself, filled on the first call.
+    private LoxClass owner;
+    private LoxFunction method;
+
+    public UniqueMethod(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void invalidate() {
+        valid = false;
+        owner = null;
+        method = null;
+    }
+
+    /**
+     * Returns the method a call on the instance invokes, or null when its class doesn't have it.
+     */
+    LoxFunction find(LoxInstance instance) {
+        LoxClass clazz = instance.getClazz();
+        for (LoxClass current = clazz; current != null; current = current.getSuperclass()) {
+            if (current == owner) {
+                return method;
+            }
+        }
+
+        // A class declared inside a function gets a new method each time the declaration runs.
+        LoxFunction found = clazz.findMethod(name);
+        if (found == null) {
+            return null;
+        }
+        owner = clazz;
+        while (owner.getSuperclass() != null && owner.getSuperclass().findMethod(name) == found) {
+            owner = owner.getSuperclass();
+        }
+        method = found;
+        return found;
+    }
+
+    /**
+     * Returns the method a call site on this property would invoke, or null when the call has
+     * to go through the property's value. Sites the analysis didn't mark pass a null target.
+     */
+    static LoxFunction findMethod(UniqueMethod target, PropertyCache cache, LoxInstance instance, Token name) {
+        if (target != null && target.valid) {
+            return target.find(instance);
+        }
+        return cache.findMethod(instance, name);
+    }
+}
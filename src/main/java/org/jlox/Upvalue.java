@@ -0,0 +1,20 @@
+package org.jlox;
+
+/**
+ * A captured variable, shared by the frame that declares it and every closure that captures it.
+ */
+public final class Upvalue {
+    private Object value;
+
+    public Upvalue(Object value) {
+        this.value = value;
+    }
+
+    public Object get() {
+        return value;
+    }
+
+    public void set(Object value) {
+        this.value = value;
+    }
+}
@@ -1,4 +0,0 @@
-package org.jlox.exception;
-
-public class BreakError extends RuntimeException {
-}
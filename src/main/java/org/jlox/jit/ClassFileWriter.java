@@ -0,0 +1,109 @@
+package org.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a single class file. Classes use version 49 so the verifier infers types itself and
+ * no StackMapTable frames have to be computed.
+ */
+public final class ClassFileWriter {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int VERSION = 49;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final List<int[]> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    public ClassFileWriter(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addField(int access, String fieldName, String descriptor) {
+        fields.add(new int[] {access, pool.utf8(fieldName), pool.utf8(descriptor)});
+    }
+
+    /**
+     * Starts a method; its bytecode is emitted into the returned Code.
+     */
+    public Code addMethod(int access, String methodName, String descriptor) {
+        Code code = new Code(pool, 1 + Code.argumentSlots(descriptor));
+        methods.add(new Method(access, pool.utf8(methodName), pool.utf8(descriptor), code));
+        return code;
+    }
+
+    public byte[] toByteArray() {
+        try {
+            int thisClass = pool.classRef(name);
+            int superClass = pool.classRef(superName);
+            int[] interfaceIndices = new int[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaceIndices[i] = pool.classRef(interfaces[i]);
+            }
+            pool.utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceIndices.length);
+            for (int index : interfaceIndices) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (int[] field : fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0);
+            }
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                out.writeShort(method.access);
+                out.writeShort(method.name);
+                out.writeShort(method.descriptor);
+                out.writeShort(1);
+                method.code.writeTo(out, pool);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Method {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final Code code;
+
+        private Method(int access, int name, int descriptor, Code code) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The bytecode of one method. Each emitting method tracks the operand stack depth so the
+ * Code attribute can be written with exact max_stack and max_locals values; code that
+ * joins from an unconditional jump has to restore the depth with {@link #setStackDepth}.
+ */
+public final class Code {
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int ALOAD = 0x19;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int ASTORE = 0x3a;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int DUP_X1 = 0x5a;
+    private static final int LADD = 0x61;
+    private static final int IXOR = 0x82;
+    private static final int L2D = 0x8a;
+    private static final int LCMP = 0x94;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGT = 0x9d;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int NEW = 0xbb;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+    private static final int IFNULL = 0xc6;
+    private static final int IFNONNULL = 0xc7;
+
+    private final ConstantPool pool;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    Code(ConstantPool pool, int argumentSlots) {
+        this.pool = pool;
+        this.maxLocals = argumentSlots;
+    }
+
+    public void aconstNull() {
+        op(ACONST_NULL, 1);
+    }
+
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            code.write(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            u2(value);
+        } else {
+            op(LDC_W, 1);
+            u2(pool.integer(value));
+        }
+    }
+
+    public void ldc(String value) {
+        op(LDC_W, 1);
+        u2(pool.string(value));
+    }
+
+    public void ldc(long value) {
+        op(LDC2_W, 2);
+        u2(pool.longValue(value));
+    }
+
+    public void aload(int local) {
+        local(ALOAD, local, 1, 1);
+    }
+
+    public void astore(int local) {
+        local(ASTORE, local, -1, 1);
+    }
+
+    public void iload(int local) {
+        local(ILOAD, local, 1, 1);
+    }
+
+    public void istore(int local) {
+        local(ISTORE, local, -1, 1);
+    }
+
+    public void lload(int local) {
+        local(LLOAD, local, 2, 2);
+    }
+
+    public void lstore(int local) {
+        local(LSTORE, local, -2, 2);
+    }
+
+    public void ladd() {
+        op(LADD, -2);
+    }
+
+    public void l2d() {
+        op(L2D, 0);
+    }
+
+    public void lcmp() {
+        op(LCMP, -3);
+    }
+
+    public void aaload() {
+        op(AALOAD, -1);
+    }
+
+    public void aastore() {
+        op(AASTORE, -3);
+    }
+
+    public void pop() {
+        op(POP, -1);
+    }
+
+    public void dup() {
+        op(DUP, 1);
+    }
+
+    public void dupX1() {
+        op(DUP_X1, 1);
+    }
+
+    public void ixor() {
+        op(IXOR, -1);
+    }
+
+    public void areturn() {
+        op(ARETURN, -1);
+    }
+
+    public void returnVoid() {
+        op(RETURN, 0);
+    }
+
+    public void getstatic(String owner, String name, String descriptor) {
+        op(GETSTATIC, 1);
+        u2(pool.fieldRef(owner, name, descriptor));
+    }
+
+    public void getfield(String owner, String name, String descriptor) {
+        op(GETFIELD, 0);
+        u2(pool.fieldRef(owner, name, descriptor));
+    }
+
+    public void putfield(String owner, String name, String descriptor) {
+        op(PUTFIELD, -2);
+        u2(pool.fieldRef(owner, name, descriptor));
+    }
+
+    public void invokevirtual(String owner, String name, String descriptor) {
+        op(INVOKEVIRTUAL, stackEffect(descriptor) - 1);
+        u2(pool.methodRef(owner, name, descriptor));
+    }
+
+    public void invokespecial(String owner, String name, String descriptor) {
+        op(INVOKESPECIAL, stackEffect(descriptor) - 1);
+        u2(pool.methodRef(owner, name, descriptor));
+    }
+
+    public void invokestatic(String owner, String name, String descriptor) {
+        op(INVOKESTATIC, stackEffect(descriptor));
+        u2(pool.methodRef(owner, name, descriptor));
+    }
+
+    public void invokeinterface(String owner, String name, String descriptor) {
+        op(INVOKEINTERFACE, stackEffect(descriptor) - 1);
+        u2(pool.interfaceMethodRef(owner, name, descriptor));
+        code.write(argumentSlots(descriptor) + 1);
+        code.write(0);
+    }
+
+    public void anew(String internalName) {
+        op(NEW, 1);
+        u2(pool.classRef(internalName));
+    }
+
+    public void anewarray(String internalName) {
+        op(ANEWARRAY, 0);
+        u2(pool.classRef(internalName));
+    }
+
+    public void checkcast(String internalName) {
+        op(CHECKCAST, 0);
+        u2(pool.classRef(internalName));
+    }
+
+    public void ifeq(Label label) {
+        jump(IFEQ, label, -1);
+    }
+
+    public void ifne(Label label) {
+        jump(IFNE, label, -1);
+    }
+
+    public void iflt(Label label) {
+        jump(IFLT, label, -1);
+    }
+
+    public void ifgt(Label label) {
+        jump(IFGT, label, -1);
+    }
+
+    public void ifnull(Label label) {
+        jump(IFNULL, label, -1);
+    }
+
+    public void ifnonnull(Label label) {
+        jump(IFNONNULL, label, -1);
+    }
+
+    public void goTo(Label label) {
+        jump(GOTO, label, 0);
+    }
+
+    public void mark(Label label) {
+        label.position = code.size();
+        byte[] bytes = null;
+        for (int[] jump : label.pending) {
+            if (bytes == null) {
+                bytes = code.toByteArray();
+            }
+            int offset = label.position - jump[0];
+            checkOffset(offset);
+            bytes[jump[1]] = (byte) (offset >> 8);
+            bytes[jump[1] + 1] = (byte) offset;
+        }
+        if (bytes != null) {
+            code.reset();
+            code.write(bytes, 0, bytes.length);
+        }
+        label.pending.clear();
+    }
+
+    public int getStackDepth() {
+        return stack;
+    }
+
+    public void setStackDepth(int depth) {
+        stack = depth;
+    }
+
+    void writeTo(DataOutputStream out, ConstantPool pool) throws IOException {
+        byte[] bytes = code.toByteArray();
+        if (bytes.length > 0xffff) {
+            throw new IllegalStateException("Method too large.");
+        }
+        out.writeShort(pool.utf8("Code"));
+        out.writeInt(12 + bytes.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private void jump(int opcode, Label label, int effect) {
+        int start = code.size();
+        op(opcode, effect);
+        if (label.position >= 0) {
+            int offset = label.position - start;
+            checkOffset(offset);
+            u2(offset);
+        } else {
+            label.pending.add(new int[] {start, code.size()});
+            u2(0);
+        }
+    }
+
+    private void local(int opcode, int local, int effect, int width) {
+        maxLocals = Math.max(maxLocals, local + width);
+        if (local > 255) {
+            code.write(WIDE);
+            op(opcode, effect);
+            u2(local);
+        } else {
+            op(opcode, effect);
+            code.write(local);
+        }
+    }
+
+    private void op(int opcode, int effect) {
+        code.write(opcode);
+        stack += effect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u2(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private static void checkOffset(int offset) {
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new IllegalStateException("Method too large for 16-bit jumps.");
+        }
+    }
+
+    private static int stackEffect(String descriptor) {
+        char returnType = descriptor.charAt(descriptor.indexOf(')') + 1);
+        int result = returnType == 'V' ? 0 : (returnType == 'J' || returnType == 'D') ? 2 : 1;
+        return result - argumentSlots(descriptor);
+    }
+
+    static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+            } else if (c == 'L') {
+                slots++;
+                i = descriptor.indexOf(';', i) + 1;
+            } else if (c == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                slots++;
+                i++;
+            } else {
+                slots++;
+                i++;
+            }
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,15 @@
+package org.jlox.jit;
+
+/**
+ * Loads classes generated at run time. Every reference they make to the runtime resolves
+ * through the parent loader.
+ */
+public final class JitClassLoader extends ClassLoader {
+    public JitClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    public Class<?> define(String binaryName, byte[] bytes) {
+        return defineClass(binaryName, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,13 @@
+package org.jlox.jit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A branch target in a {@link Code} body. Jumps to a label that has not been placed yet are
+ * patched once it is.
+ */
+public final class Label {
+    int position = -1;
+    final List<int[]> pending = new ArrayList<>();
+}
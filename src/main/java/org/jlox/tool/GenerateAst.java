@@ -15,34 +15,39 @@ public class GenerateAst {
         String outputDir = args[0];
 
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
+                "Assign   : Token name, Expr value | Storage storage = Storage.GLOBAL, int slot = -1",
+                "Binary   : Expr left, Token operator, Expr right | BinarySpecialization specialization = BinarySpecialization.UNINITIALIZED",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Get      : Expr object, Token name | PropertyCache cache = new PropertyCache(), UniqueMethod target = null",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()",
+                "Super    : Token keyword, Token method | Storage storage = Storage.GLOBAL, int slot = -1, This receiver = null",
+                "This     : Token keyword | Storage storage = Storage.GLOBAL, int slot = -1",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name",
+                "Variable : Token name | Storage storage = Storage.GLOBAL, int slot = -1",
                 "Conditional: Expr condition, Expr thenBranch, Expr elseBranch",
-                "AnonFunction: List<Token> params, List<Stmt> body"
+                "AnonFunction: Stmt.Function declaration",
+                "Inlined  : Call call, Token function, Expr body"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block: List<Stmt> statements",
+                "Block: List<Stmt> statements | int slots = 0",
                 "Class: Token name, Expr.Variable superclass," +
-                        " List<Stmt.Function> methods, List<Stmt.Function> staticMethods",
+                        " List<Stmt.Function> methods, List<Stmt.Function> staticMethods" +
+                        " | Storage storage = Storage.GLOBAL, int slot = -1, int superSlot = -1, int slots = 0",
                 "Expression : Expr expression",
                 "Function   : Token name, List<Token> params," +
-                            " List<Stmt> body",
+                            " List<Stmt> body | Storage storage = Storage.GLOBAL, int slot = -1, int slots = 0," +
+                            " List<Capture> captures = List.of(), int[] boxedParams = new int[0]," +
+                            " JitProfile profile = new JitProfile()",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Return     : Token keyword, Expr value | boolean tailCall = false",
+                "Var        : Token name, Expr initializer | Storage storage = Storage.GLOBAL, int slot = -1",
                 "While      : Expr condition, Stmt body",
+                "For        : Stmt initializer, Expr condition, Expr increment, Stmt body | int slots = 0",
                 "Break      : Token keyword"
         ));
     }
@@ -57,15 +62,20 @@ public class GenerateAst {
         printWriter.println();
         printWriter.println("import java.util.List;");
         printWriter.println();
-        printWriter.println("abstract class " + baseName + " {");
+        // Sealed, with every node final, so a switch over the node kinds covers the whole hierarchy.
+        printWriter.println("abstract sealed class " + baseName + " {");
 
         defineVisitor(printWriter, baseName, types);
         printWriter.println();
+        defineKinds(printWriter, baseName, types);
+        printWriter.println();
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(printWriter, baseName, className, fields);
+            String[] fieldGroups = type.split(":")[1].split("\\|");
+            String fields = fieldGroups[0].trim();
+            String mutableFields = fieldGroups.length > 1 ? fieldGroups[1].trim() : "";
+            defineType(printWriter, baseName, className, fields, mutableFields);
         }
 
         printWriter.println();
@@ -78,16 +88,24 @@ public class GenerateAst {
     private static void defineType(PrintWriter writer,
                                    String baseName,
                                    String className,
-                                   String fieldList) {
-        writer.println("\tpublic static class " + className + " extends " + baseName + " {");
+                                   String fieldList,
+                                   String mutableFieldList) {
+        writer.println("\tpublic static final class " + className + " extends " + baseName + " {");
 
         String[] fields = fieldList.split(", ");
         for (String field : fields) {
             writer.println("\t\tprivate final " + field + ";");
         }
+
+        // Mutable fields are filled in after parsing, e.g. by the Resolver.
+        String[] mutableFields = mutableFieldList.isEmpty() ? new String[0] : mutableFieldList.split(", ");
+        for (String field : mutableFields) {
+            writer.println("\t\tprivate " + field + ";");
+        }
         writer.println();
 
         writer.println("\t\t" + className + "(" + fieldList + ") {");
+        writer.println("\t\t\tsuper(Kind." + kindName(className) + ");");
 
         for (String field : fields) {
             String name = field.split(" ")[1];
@@ -111,6 +129,20 @@ public class GenerateAst {
             writer.println("\t\t}");
         }
 
+        for (String field : mutableFields) {
+            String[] splittedField = field.split(" ");
+            String fieldType = splittedField[0];
+            String fieldName = splittedField[1];
+            writer.println();
+            writer.println("\t\t" + createGetterName(fieldType, fieldName) + "() {");
+            writer.println("\t\t\treturn this." + fieldName + ";");
+            writer.println("\t\t}");
+            writer.println();
+            writer.println("\t\t" + createSetterName(fieldType, fieldName) + " {");
+            writer.println("\t\t\tthis." + fieldName + " = " + fieldName + ";");
+            writer.println("\t\t}");
+        }
+
         writer.println("\t}");
         writer.println();
     }
@@ -127,6 +159,39 @@ public class GenerateAst {
         writer.println("\t}");
     }
 
+    // One constant per node type, which each node passes up to the base class, for dispatching without a visitor.
+    private static void defineKinds(PrintWriter writer,
+                                    String baseName,
+                                    List<String> types) {
+        writer.println("\tenum Kind {");
+        for (int i = 0; i < types.size(); i++) {
+            String separator = i < types.size() - 1 ? "," : "";
+            writer.println("\t\t" + kindName(types.get(i).split(":")[0].trim()) + separator);
+        }
+        writer.println("\t}");
+        writer.println();
+        writer.println("\tprivate final Kind kind;");
+        writer.println();
+        writer.println("\tprivate " + baseName + "(Kind kind) {");
+        writer.println("\t\tthis.kind = kind;");
+        writer.println("\t}");
+        writer.println();
+        writer.println("\tfinal Kind getKind() {");
+        writer.println("\t\treturn kind;");
+        writer.println("\t}");
+    }
+
+    private static String kindName(String className) {
+        return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    private static String createSetterName(String fieldType, String fieldName) {
+        return "void set"
+                + fieldName.substring(0, 1).toUpperCase()
+                + fieldName.substring(1).toLowerCase()
+                + "(" + fieldType + " " + fieldName + ")";
+    }
+
     private static String createGetterName(String fieldType, String fieldName) {
         return "public "
                 + fieldType
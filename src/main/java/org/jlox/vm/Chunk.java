@@ -0,0 +1,172 @@
+package org.jlox.vm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Chunk {
+    private byte[] code = new byte[16];
+    private int[] lines = new int[16];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private Object[] constantArray;
+
+    public void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    public void patch(int offset, int b) {
+        code[offset] = (byte) b;
+    }
+
+    public int addConstant(Object value) {
+        // Numbers and strings are immutable, so equal values can share a slot.
+        if (value instanceof Double || value instanceof String) {
+            Integer index = constantIndices.get(value);
+            if (index != null) {
+                return index;
+            }
+            constantIndices.put(value, constants.size());
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constantArray = constants.toArray();
+    }
+
+    /**
+     * The most values the code ever has on the stack above its frame's base, starting from
+     * {@code entry} values (the callee and its arguments). Follows every branch, so values left
+     * on the stack by only one side of a jump still count.
+     */
+    int maxStack(int entry) {
+        int[] depths = new int[count];
+        Arrays.fill(depths, -1);
+        Deque<Integer> pending = new ArrayDeque<>();
+        depths[0] = entry;
+        pending.push(0);
+        int max = entry;
+
+        while (!pending.isEmpty()) {
+            int offset = pending.pop();
+            int depth = depths[offset];
+            while (offset < count) {
+                byte op = code[offset];
+                depth += stackEffect(offset);
+                max = Math.max(max, depth);
+                int next = offset + length(offset);
+
+                if (op == OpCode.RETURN) {
+                    break;
+                }
+                if (op == OpCode.JUMP || op == OpCode.JUMP_IF_FALSE || op == OpCode.LOOP) {
+                    int jump = readShort(offset + 1);
+                    int target = op == OpCode.LOOP ? next - jump : next + jump;
+                    if (depths[target] < depth) {
+                        depths[target] = depth;
+                        pending.push(target);
+                    }
+                    if (op != OpCode.JUMP_IF_FALSE) {
+                        break;
+                    }
+                }
+                if (next < count && depths[next] >= depth) {
+                    break;
+                }
+                if (next < count) {
+                    depths[next] = depth;
+                }
+                offset = next;
+            }
+        }
+        return max;
+    }
+
+    // How many values the instruction at the offset leaves on the stack minus how many it takes.
+    private int stackEffect(int offset) {
+        switch (code[offset]) {
+            case OpCode.CONSTANT, OpCode.NIL, OpCode.TRUE, OpCode.FALSE, OpCode.GET_LOCAL,
+                    OpCode.GET_GLOBAL, OpCode.GET_UPVALUE, OpCode.CLOSURE, OpCode.CLASS -> {
+                return 1;
+            }
+            case OpCode.POP, OpCode.DEFINE_GLOBAL, OpCode.SET_PROPERTY, OpCode.GET_SUPER,
+                    OpCode.EQUAL, OpCode.GREATER, OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL,
+                    OpCode.ADD, OpCode.SUBTRACT, OpCode.MULTIPLY, OpCode.DIVIDE, OpCode.PRINT,
+                    OpCode.CLOSE_UPVALUE, OpCode.RETURN, OpCode.INHERIT, OpCode.METHOD,
+                    OpCode.STATIC_METHOD -> {
+                return -1;
+            }
+            case OpCode.CALL -> {
+                return -(code[offset + 1] & 0xff);
+            }
+            case OpCode.INVOKE -> {
+                return -(code[offset + 3] & 0xff);
+            }
+            case OpCode.SUPER_INVOKE -> {
+                return -(code[offset + 3] & 0xff) - 1;
+            }
+            default -> {
+                return 0;
+            }
+        }
+    }
+
+    // The size of the instruction at the offset, operands included.
+    private int length(int offset) {
+        switch (code[offset]) {
+            case OpCode.GET_LOCAL, OpCode.SET_LOCAL, OpCode.GET_UPVALUE, OpCode.SET_UPVALUE, OpCode.CALL -> {
+                return 2;
+            }
+            case OpCode.CONSTANT, OpCode.GET_GLOBAL, OpCode.DEFINE_GLOBAL, OpCode.SET_GLOBAL,
+                    OpCode.GET_PROPERTY, OpCode.SET_PROPERTY, OpCode.GET_SUPER, OpCode.JUMP,
+                    OpCode.JUMP_IF_FALSE, OpCode.LOOP, OpCode.CLASS, OpCode.METHOD, OpCode.STATIC_METHOD -> {
+                return 3;
+            }
+            case OpCode.INVOKE, OpCode.SUPER_INVOKE -> {
+                return 4;
+            }
+            case OpCode.CLOSURE -> {
+                VmFunction function = (VmFunction) constants.get(readShort(offset + 1));
+                return 3 + 2 * function.getUpvalueCount();
+            }
+            default -> {
+                return 1;
+            }
+        }
+    }
+
+    private int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    byte[] getCode() {
+        return code;
+    }
+
+    int getLine(int offset) {
+        return lines[offset];
+    }
+
+    Object[] getConstants() {
+        return constantArray;
+    }
+}
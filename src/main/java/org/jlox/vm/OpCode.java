@@ -0,0 +1,47 @@
+package org.jlox.vm;
+
+public final class OpCode {
+    public static final byte CONSTANT = 0;
+    public static final byte NIL = 1;
+    public static final byte TRUE = 2;
+    public static final byte FALSE = 3;
+    public static final byte POP = 4;
+    public static final byte GET_LOCAL = 5;
+    public static final byte SET_LOCAL = 6;
+    public static final byte GET_GLOBAL = 7;
+    public static final byte DEFINE_GLOBAL = 8;
+    public static final byte SET_GLOBAL = 9;
+    public static final byte GET_UPVALUE = 10;
+    public static final byte SET_UPVALUE = 11;
+    public static final byte GET_PROPERTY = 12;
+    public static final byte SET_PROPERTY = 13;
+    public static final byte GET_SUPER = 14;
+    public static final byte EQUAL = 15;
+    public static final byte GREATER = 16;
+    public static final byte GREATER_EQUAL = 17;
+    public static final byte LESS = 18;
+    public static final byte LESS_EQUAL = 19;
+    public static final byte ADD = 20;
+    public static final byte SUBTRACT = 21;
+    public static final byte MULTIPLY = 22;
+    public static final byte DIVIDE = 23;
+    public static final byte NOT = 24;
+    public static final byte NEGATE = 25;
+    public static final byte PRINT = 26;
+    public static final byte JUMP = 27;
+    public static final byte JUMP_IF_FALSE = 28;
+    public static final byte LOOP = 29;
+    public static final byte CALL = 30;
+    public static final byte INVOKE = 31;
+    public static final byte SUPER_INVOKE = 32;
+    public static final byte CLOSURE = 33;
+    public static final byte CLOSE_UPVALUE = 34;
+    public static final byte RETURN = 35;
+    public static final byte CLASS = 36;
+    public static final byte INHERIT = 37;
+    public static final byte METHOD = 38;
+    public static final byte STATIC_METHOD = 39;
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,544 @@
+package org.jlox.vm;
+
+import org.jlox.Globals;
+import org.jlox.LoxCallable;
+import org.jlox.Token;
+import org.jlox.TokenType;
+import org.jlox.exception.RuntimeError;
+import org.jlox.primitives.Clock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class VM {
+    private static final int FRAMES_MAX = 65536;
+    private static final int INITIAL_STACK = 8192;
+
+    private Object[] stack = new Object[INITIAL_STACK];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues = null;
+    private final Globals globals = new Globals();
+
+    public VM() {
+        globals.define("clock", new Clock());
+    }
+
+    public Globals getGlobals() {
+        return globals;
+    }
+
+    public void interpret(VmFunction script) {
+        VmClosure closure = new VmClosure(script);
+        push(closure);
+        try {
+            callClosure(closure, 0, 0);
+            run();
+        } catch (RuntimeError error) {
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+            throw error;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        VmClosure closure = frame.closure;
+        Chunk chunk = closure.function.getChunk();
+        byte[] code = chunk.getCode();
+        Object[] constants = chunk.getConstants();
+        int base = frame.base;
+        int ip = frame.ip;
+
+        for (;;) {
+            int start = ip;
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> {
+                    push(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                    ip += 2;
+                }
+                case OpCode.NIL -> push(null);
+                case OpCode.TRUE -> push(true);
+                case OpCode.FALSE -> push(false);
+                case OpCode.POP -> stack[--sp] = null;
+                case OpCode.GET_LOCAL -> push(stack[base + (code[ip++] & 0xff)]);
+                case OpCode.SET_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                case OpCode.GET_GLOBAL -> {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    Object value = globals.get(slot);
+                    if (value == Globals.UNDEFINED) {
+                        throw error(chunk, start, "Undefined variable '" + globals.getName(slot) + "'.");
+                    }
+                    push(value);
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    globals.define(((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff), pop());
+                    ip += 2;
+                }
+                case OpCode.SET_GLOBAL -> {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!globals.isDefined(slot)) {
+                        throw error(chunk, start, "Undefined variable '" + globals.getName(slot) + "'.");
+                    }
+                    globals.define(slot, stack[sp - 1]);
+                }
+                case OpCode.GET_UPVALUE -> {
+                    VmUpvalue upvalue = closure.upvalues[code[ip++] & 0xff];
+                    push(upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed);
+                }
+                case OpCode.SET_UPVALUE -> {
+                    VmUpvalue upvalue = closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                }
+                case OpCode.GET_PROPERTY -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object object = stack[sp - 1];
+                    if (object instanceof VmInstance) {
+                        VmInstance instance = (VmInstance) object;
+                        int index = instance.shape.indexOf(name);
+                        if (index >= 0) {
+                            stack[sp - 1] = instance.fields[index];
+                        } else {
+                            VmClosure method = instance.clazz.methods.get(name);
+                            if (method == null) {
+                                throw error(chunk, start, "Undefined property '" + name + "'.");
+                            }
+                            stack[sp - 1] = new VmBoundMethod(instance, method);
+                        }
+                    } else if (object instanceof VmClass) {
+                        VmClosure method = ((VmClass) object).staticMethods.get(name);
+                        if (method == null) {
+                            throw error(chunk, start, "Undefined static property '" + name + "'.");
+                        }
+                        stack[sp - 1] = method;
+                    } else {
+                        throw error(chunk, start, "Only instances have properties.");
+                    }
+                }
+                case OpCode.SET_PROPERTY -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 2] instanceof VmInstance)) {
+                        throw error(chunk, start, "Only instances have fields.");
+                    }
+                    Object value = pop();
+                    ((VmInstance) stack[sp - 1]).set(name, value);
+                    stack[sp - 1] = value;
+                }
+                case OpCode.GET_SUPER -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClass superclass = (VmClass) pop();
+                    VmClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(chunk, start, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new VmBoundMethod(stack[sp - 1], method);
+                }
+                case OpCode.EQUAL -> {
+                    Object right = pop();
+                    stack[sp - 1] = isEqual(stack[sp - 1], right);
+                }
+                case OpCode.GREATER -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left > (double) right;
+                    } else if (left instanceof String && right instanceof String) {
+                        stack[sp - 1] = ((String) left).compareTo((String) right) > 0;
+                    } else {
+                        throw error(chunk, start, "Operands for '>' must be both numbers or both strings.");
+                    }
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left >= (double) right;
+                    } else if (left instanceof String && right instanceof String) {
+                        stack[sp - 1] = ((String) left).compareTo((String) right) >= 0;
+                    } else {
+                        throw error(chunk, start, "Operands for '>=' must be both numbers or both strings.");
+                    }
+                }
+                case OpCode.LESS -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left < (double) right;
+                    } else if (left instanceof String && right instanceof String) {
+                        stack[sp - 1] = ((String) left).compareTo((String) right) < 0;
+                    } else {
+                        throw error(chunk, start, "Operands for '<' must be both numbers or both strings.");
+                    }
+                }
+                case OpCode.LESS_EQUAL -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left <= (double) right;
+                    } else if (left instanceof String && right instanceof String) {
+                        stack[sp - 1] = ((String) left).compareTo((String) right) <= 0;
+                    } else {
+                        throw error(chunk, start, "Operands for '<=' must be both numbers or both strings.");
+                    }
+                }
+                case OpCode.ADD -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left + (double) right;
+                    } else if (left instanceof String || right instanceof String) {
+                        stack[sp - 1] = stringify(left) + stringify(right);
+                    } else {
+                        throw error(chunk, start, "Operands must be two numbers or two strings");
+                    }
+                }
+                case OpCode.SUBTRACT -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    checkNumberOperands(chunk, start, left, right);
+                    stack[sp - 1] = (double) left - (double) right;
+                }
+                case OpCode.MULTIPLY -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    checkNumberOperands(chunk, start, left, right);
+                    stack[sp - 1] = (double) left * (double) right;
+                }
+                case OpCode.DIVIDE -> {
+                    Object left = stack[sp - 2];
+                    Object right = pop();
+                    checkNumberOperands(chunk, start, left, right);
+                    if ((double) right == 0.0) {
+                        throw error(chunk, start, "Division by zero");
+                    }
+                    stack[sp - 1] = (double) left / (double) right;
+                }
+                case OpCode.NOT -> stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                case OpCode.NEGATE -> {
+                    if (!(stack[sp - 1] instanceof Double)) {
+                        throw error(chunk, start, "Operand must be a number.");
+                    }
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                }
+                case OpCode.PRINT -> System.out.println(stringify(pop()));
+                case OpCode.JUMP -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!isTruthy(stack[sp - 1])) {
+                        ip += offset;
+                    }
+                }
+                case OpCode.LOOP -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                }
+                case OpCode.CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(stack[sp - argCount - 1], argCount, chunk.getLine(start));
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    chunk = closure.function.getChunk();
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.INVOKE -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    invoke(name, argCount, chunk.getLine(start));
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    chunk = closure.function.getChunk();
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.SUPER_INVOKE -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    VmClass superclass = (VmClass) pop();
+                    VmClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(chunk, start, "Undefined property '" + name + "'.");
+                    }
+                    frame.ip = ip;
+                    callClosure(method, argCount, chunk.getLine(start));
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    chunk = closure.function.getChunk();
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.CLOSURE -> {
+                    VmFunction function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure created = new VmClosure(function);
+                    for (int i = 0; i < created.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] != 0;
+                        int index = code[ip++] & 0xff;
+                        created.upvalues[i] = isLocal
+                                ? captureUpvalue(base + index)
+                                : closure.upvalues[index];
+                    }
+                    push(created);
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    stack[--sp] = null;
+                }
+                case OpCode.RETURN -> {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    if (frameCount == 0) {
+                        return;
+                    }
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    chunk = closure.function.getChunk();
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.CLASS -> {
+                    push(new VmClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]));
+                    ip += 2;
+                }
+                case OpCode.INHERIT -> {
+                    if (!(stack[sp - 2] instanceof VmClass)) {
+                        throw error(chunk, start, "Superclass must be a class.");
+                    }
+                    VmClass superclass = (VmClass) stack[sp - 2];
+                    VmClass subclass = (VmClass) pop();
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.staticMethods.putAll(superclass.staticMethods);
+                }
+                case OpCode.METHOD -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure method = (VmClosure) pop();
+                    ((VmClass) stack[sp - 1]).methods.put(name, method);
+                }
+                case OpCode.STATIC_METHOD -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure method = (VmClosure) pop();
+                    ((VmClass) stack[sp - 1]).staticMethods.put(name, method);
+                }
+                default -> throw error(chunk, start, "Unknown opcode " + code[start] + ".");
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argCount, int line) {
+        if (callee instanceof VmClosure) {
+            callClosure((VmClosure) callee, argCount, line);
+        } else if (callee instanceof VmBoundMethod) {
+            VmBoundMethod bound = (VmBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            callClosure(bound.method, argCount, line);
+        } else if (callee instanceof VmClass) {
+            VmClass clazz = (VmClass) callee;
+            VmClosure initializer = clazz.methods.get("init");
+            if (initializer == null && argCount != 0) {
+                throw error(line, "Expected 0 arguments but got " + argCount + ".");
+            }
+            stack[sp - argCount - 1] = new VmInstance(clazz);
+            if (initializer != null) {
+                callClosure(initializer, argCount, line);
+            }
+        } else if (callee instanceof LoxCallable) {
+            LoxCallable function = (LoxCallable) callee;
+            if (argCount != function.arity()) {
+                throw error(line, "Expected " + function.arity() + " arguments but got " + argCount + ".");
+            }
+            List<Object> arguments = new ArrayList<>(Arrays.asList(stack).subList(sp - argCount, sp));
+            Object result = function.call(null, arguments);
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw error(line, "Can only call functions and classes.");
+        }
+    }
+
+    private void invoke(String name, int argCount, int line) {
+        Object receiver = stack[sp - argCount - 1];
+        if (receiver instanceof VmInstance) {
+            VmInstance instance = (VmInstance) receiver;
+            int index = instance.shape.indexOf(name);
+            if (index >= 0) {
+                Object field = instance.fields[index];
+                stack[sp - argCount - 1] = field;
+                callValue(field, argCount, line);
+                return;
+            }
+            VmClosure method = instance.clazz.methods.get(name);
+            if (method == null) {
+                throw error(line, "Undefined property '" + name + "'.");
+            }
+            callClosure(method, argCount, line);
+        } else if (receiver instanceof VmClass) {
+            VmClosure method = ((VmClass) receiver).staticMethods.get(name);
+            if (method == null) {
+                throw error(line, "Undefined static property '" + name + "'.");
+            }
+            stack[sp - argCount - 1] = method;
+            callClosure(method, argCount, line);
+        } else {
+            throw error(line, "Only instances have properties.");
+        }
+    }
+
+    private void callClosure(VmClosure closure, int argCount, int line) {
+        if (argCount != closure.function.getArity()) {
+            throw error(line, "Expected " + closure.function.getArity() + " arguments but got " + argCount + ".");
+        }
+        if (frameCount == FRAMES_MAX) {
+            throw error(line, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        // The function's maximum stack depth, counted from the callee slot, covers its locals
+        // and every temporary it pushes, so nothing in the frame needs a bounds check.
+        int needed = sp - argCount - 1 + closure.function.getMaxStack();
+        if (needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
+        }
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private void checkNumberOperands(Chunk chunk, int offset, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return;
+        }
+        throw error(chunk, offset, "Operands must be numbers.");
+    }
+
+    private RuntimeError error(Chunk chunk, int offset, String message) {
+        return error(chunk.getLine(offset), message);
+    }
+
+    private RuntimeError error(int line, String message) {
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) {
+            return false;
+        }
+        if (object instanceof Boolean) {
+            return (boolean) object;
+        }
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) {
+            return true;
+        }
+        if (a == null) {
+            return false;
+        }
+        return a.equals(b);
+    }
+
+    private static String stringify(Object object) {
+        if (object == null) {
+            return "nil";
+        }
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return object.toString();
+    }
+
+    private static final class CallFrame {
+        private VmClosure closure;
+        private int ip;
+        private int base;
+    }
+}
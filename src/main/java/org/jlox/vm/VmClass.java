@@ -0,0 +1,22 @@
+package org.jlox.vm;
+
+import org.jlox.Shape;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmClass {
+    final String name;
+    final Map<String, VmClosure> methods = new HashMap<>();
+    final Map<String, VmClosure> staticMethods = new HashMap<>();
+    final Shape rootShape = new Shape();
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,16 @@
+package org.jlox.vm;
+
+class VmClosure {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+
+    VmClosure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.getUpvalueCount()];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package org.jlox.vm;
+
+public class VmFunction {
+    private final String name;
+    private final int arity;
+    private final Chunk chunk = new Chunk();
+    private int upvalueCount = 0;
+    // The most stack slots a call of the function can use, arguments included.
+    private int maxStack = 0;
+
+    public VmFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public void seal(int upvalueCount) {
+        this.upvalueCount = upvalueCount;
+        chunk.seal();
+        maxStack = chunk.maxStack(arity + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    public Chunk getChunk() {
+        return chunk;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getUpvalueCount() {
+        return upvalueCount;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) {
+            return "<script>";
+        }
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,35 @@
+package org.jlox.vm;
+
+import org.jlox.Shape;
+
+import java.util.Arrays;
+
+class VmInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    final VmClass clazz;
+    Shape shape;
+    Object[] fields = NO_FIELDS;
+
+    VmInstance(VmClass clazz) {
+        this.clazz = clazz;
+        this.shape = clazz.rootShape;
+    }
+
+    void set(String name, Object value) {
+        int index = shape.indexOf(name);
+        if (index < 0) {
+            shape = shape.withField(name);
+            index = shape.size() - 1;
+            if (index == fields.length) {
+                fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            }
+        }
+        fields[index] = value;
+    }
+
+    @Override
+    public String toString() {
+        return clazz.name + " instance";
+    }
+}
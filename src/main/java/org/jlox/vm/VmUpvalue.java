@@ -0,0 +1,13 @@
+package org.jlox.vm;
+
+class VmUpvalue {
+    // Stack slot while the variable is still live, -1 once it has been closed over.
+    int slot;
+    Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}